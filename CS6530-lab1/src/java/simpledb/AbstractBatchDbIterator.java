@@ -0,0 +1,68 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Helper for implementing DbIterators that produce their tuples a batch at
+ * a time: subclasses implement {@link #readBatch}, and this class serves
+ * {@link #hasNext}/{@link #next} from the batches for consumers that work a
+ * tuple at a time, and hands batches straight to {@link #nextBatch}.
+ */
+public abstract class AbstractBatchDbIterator implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Batch being returned by next(); tuples before pos have been. */
+    private transient TupleBatch current;
+    private transient int pos;
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (current == null)
+            current = new TupleBatch();
+        while (pos == current.size()) {
+            current.clear();
+            pos = 0;
+            if (!readBatch(current))
+                return false;
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return current.get(pos++);
+    }
+
+    /**
+     * Fills batch with the tuples next() has not returned yet, then with new
+     * ones from {@link #readBatch}.
+     */
+    public boolean nextBatch(TupleBatch batch) throws DbException,
+            TransactionAbortedException {
+        batch.clear();
+        while (current != null && pos < current.size() && !batch.isFull())
+            batch.add(current.get(pos++));
+        if (batch.size() > 0)
+            return true;
+        return readBatch(batch);
+    }
+
+    /**
+     * Drops the tuples read ahead for next().  If subclasses override
+     * this, they should call super.close(); rewind() should too, or close().
+     */
+    public void close() {
+        if (current != null)
+            current.clear();
+        pos = 0;
+    }
+
+    /**
+     * Adds the next tuples to batch, which is empty, up to its capacity.
+     * @return false if the iteration is finished and no tuples were added
+     */
+    protected abstract boolean readBatch(TupleBatch batch)
+            throws DbException, TransactionAbortedException;
+}
@@ -22,6 +22,36 @@ public abstract class AbstractDbFileIterator implements DbFileIterator {
         return result;
     }
 
+    /**
+     * Fills batch with the tuple hasNext() read ahead, if any, then with
+     * {@link #readBatch}.
+     */
+    public boolean nextBatch(TupleBatch batch) throws DbException,
+            TransactionAbortedException {
+        batch.clear();
+        if (next != null) {
+            batch.add(next);
+            next = null;
+        }
+        readBatch(batch);
+        return batch.size() > 0;
+    }
+
+    /**
+     * Fills batch with the tuple hasNext() read ahead, if any, then with
+     * {@link #readColumns}.
+     */
+    public boolean nextColumns(ColumnBatch batch) throws DbException,
+            TransactionAbortedException {
+        batch.clear();
+        if (next != null) {
+            batch.add(next);
+            next = null;
+        }
+        readColumns(batch);
+        return batch.size() > 0;
+    }
+
     /** If subclasses override this, they should call super.close(). */
     public void close() {
         // Ensures that a future call to next() will fail
@@ -32,5 +62,35 @@ public abstract class AbstractDbFileIterator implements DbFileIterator {
     @return the next Tuple in the iterator, null if the iteration is finished. */
     protected abstract Tuple readNext() throws DbException, TransactionAbortedException;
 
+    /**
+     * Adds the next tuples from the underlying source to batch, until it is
+     * full or the iteration is finished.  By default this calls readNext()
+     * for each; subclasses that can read tuples in bulk override it.
+     */
+    protected void readBatch(TupleBatch batch) throws DbException,
+            TransactionAbortedException {
+        while (!batch.isFull()) {
+            Tuple t = readNext();
+            if (t == null)
+                return;
+            batch.add(t);
+        }
+    }
+
+    /**
+     * Adds the next tuples from the underlying source to the columns of
+     * batch, until it is full or the iteration is finished.  By default this
+     * calls readNext() for each.
+     */
+    protected void readColumns(ColumnBatch batch) throws DbException,
+            TransactionAbortedException {
+        while (!batch.isFull()) {
+            Tuple t = readNext();
+            if (t == null)
+                return;
+            batch.add(t);
+        }
+    }
+
     private Tuple next = null;
 }
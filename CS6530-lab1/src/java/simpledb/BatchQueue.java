@@ -0,0 +1,194 @@
+package simpledb;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded queue of tuple batches for any number of producing and
+ * consuming threads, which takes no locks.  Each cell of a ring carries a
+ * sequence number that tells producers and consumers whose turn it is:
+ * cell i is free for the producer that claims position p (p % capacity ==
+ * i) once its sequence is p, and holds a batch for the consumer of p once
+ * its sequence is p + 1.  Positions are claimed by compare-and-set on the
+ * head and tail counters.
+ * <p>
+ * {@link #put} and {@link #take} wait for room or a batch by spinning, then
+ * parking for longer and longer, through {@link ForkJoinPool#managedBlock}
+ * so that a MorselScheduler keeps its other workers busy meanwhile.
+ *
+ * @Threadsafe
+ */
+class BatchQueue {
+
+    /** Longest a waiting thread parks before it looks again. */
+    private static final long MAX_PARK_NANOS = 1000000;
+
+    private final AtomicReferenceArray<TupleBatch> cells;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * @param capacity the fewest batches the queue holds; rounded up to a
+     *   power of two
+     */
+    BatchQueue(int capacity) {
+        int n = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        cells = new AtomicReferenceArray<TupleBatch>(n);
+        sequences = new AtomicLongArray(n);
+        for (int i = 0; i < n; i++)
+            sequences.set(i, i);
+        mask = n - 1;
+    }
+
+    /**
+     * Adds batch to the queue if it has room.
+     * @return false if the queue is full
+     */
+    boolean offer(TupleBatch batch) {
+        long pos = tail.get();
+        while (true) {
+            int i = (int) pos & mask;
+            long turn = sequences.get(i) - pos;
+            if (turn == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    cells.lazySet(i, batch);
+                    sequences.set(i, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (turn < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest batch from the queue.
+     * @return the batch, or null if the queue is empty
+     */
+    TupleBatch poll() {
+        long pos = head.get();
+        while (true) {
+            int i = (int) pos & mask;
+            long turn = sequences.get(i) - (pos + 1);
+            if (turn == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    TupleBatch batch = cells.get(i);
+                    cells.lazySet(i, null);
+                    sequences.set(i, pos + mask + 1);
+                    return batch;
+                }
+                pos = head.get();
+            } else if (turn < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * Closes the queue: producers stop waiting for room, and batches put
+     * from now on are dropped.
+     */
+    void close() {
+        closed = true;
+        while (poll() != null)
+            ;
+    }
+
+    /** @return true if the queue has been closed */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Adds batch to the queue, waiting for room.
+     * @return false if the queue was closed, and batch dropped
+     */
+    boolean put(final TupleBatch batch) {
+        ForkJoinPool.ManagedBlocker blocker = new ForkJoinPool.ManagedBlocker() {
+            private boolean put = false;
+            private long park = 0;
+
+            public boolean block() throws InterruptedException {
+                while (!isReleasable())
+                    park = backOff(park);
+                return true;
+            }
+
+            public boolean isReleasable() {
+                return put || closed || (put = offer(batch));
+            }
+        };
+        if (!blocker.isReleasable() && !block(blocker))
+            return false;
+        return !closed;
+    }
+
+    /**
+     * Removes the oldest batch from the queue, waiting for one.
+     *
+     * @throws DbException if the thread is interrupted while waiting
+     */
+    TupleBatch take() throws DbException {
+        TupleBatch batch = poll();
+        if (batch != null)
+            return batch;
+        final TupleBatch[] taken = new TupleBatch[1];
+        boolean waited = block(new ForkJoinPool.ManagedBlocker() {
+            private long park = 0;
+
+            public boolean block() throws InterruptedException {
+                while (!isReleasable())
+                    park = backOff(park);
+                return true;
+            }
+
+            public boolean isReleasable() {
+                return taken[0] != null || (taken[0] = poll()) != null;
+            }
+        });
+        if (!waited)
+            throw new DbException("interrupted waiting for tuples");
+        return taken[0];
+    }
+
+    /**
+     * Runs blocker through the ForkJoinPool, if any.
+     * @return false if the thread was interrupted
+     */
+    private static boolean block(ForkJoinPool.ManagedBlocker blocker) {
+        try {
+            ForkJoinPool.managedBlock(blocker);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Waits a little before a waiting thread looks at the queue again.
+     * @return how long to park the next time
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private static long backOff(long park) throws InterruptedException {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        if (park == 0) {
+            Thread.yield();
+            return 1000;
+        }
+        LockSupport.parkNanos(park);
+        return Math.min(park * 2, MAX_PARK_NANOS);
+    }
+}
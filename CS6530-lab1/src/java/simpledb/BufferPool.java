@@ -1,8 +1,11 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -12,8 +15,24 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The page table is a concurrent map whose loads and removals are
+ * serialized per stripe, where a page's stripe is chosen from the hash of its
+ * PageId.  Hits on resident pages take no lock at all; only misses (and
+ * flushes/discards) of pages that fall into the same stripe contend.
+ * <p>
+ * Pages are replaced with CLOCK (second chance): every frame carries a
+ * reference bit that hits set without locking, and the eviction hand sweeps
+ * the frames clearing bits until it finds an unreferenced clean page.
+ * <p>
+ * Large sequential scans can pass a bulk-read {@link AccessStrategy} to
+ * getPage.  Pages they miss on are loaded into a small private ring of
+ * frames that the scan recycles, so the scan does not flush the rest of
+ * the pool.  A scan's strategy also drives its {@link ReadAhead}, which
+ * loads the pages ahead of a sequential reader on background threads.
  * 
- * @Threadsafe, all fields are final
+ * @Threadsafe, all fields are final except the CLOCK hand, which is
+ * guarded by evictLock
  */
 public class BufferPool {
     /** Bytes per page, including header. */
@@ -26,19 +45,199 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Upper bound on the number of lock stripes of the page table. */
+    private static final int MAX_STRIPES = 256;
+
+    /** Frames in a bulk-read ring, capped at a quarter of the pool. */
+    private static final int BULK_READ_RING_SIZE = 16;
+
+    /** Default number of pages a sequential scan reads ahead of itself. */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 8;
+
+    /** Results of a CLOCK sweep that found no victim. */
+    private static final int SWEEP_RETRY = -1;
+    private static final int SWEEP_ALL_DIRTY = -2;
+
+    private final int numPages;
+
+    /** Resident pages; reads are lock-free, writes hold the page's stripe. */
+    private final ConcurrentHashMap<PageId, Frame> pages;
+
+    /** Stripe monitors; a power of two in length so we can mask the hash. */
+    private final Object[] stripes;
+
+    /** The CLOCK ring; slot i holds the frame loaded into it, or null. */
+    private final AtomicReferenceArray<Frame> clock;
+
+    /** Slots that hold no page and are not reserved by a load. */
+    private final ConcurrentLinkedQueue<Integer> freeSlots;
+
+    /** Serializes victim selection; taken before any stripe, never after. */
+    private final Object evictLock = new Object();
+
+    /** Next slot the CLOCK hand examines. */
+    private int hand = 0;
+
+    private volatile int readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+
+    /** A resident page together with its slot and reference bit. */
+    private static class Frame {
+        final Page page;
+        final int slot;
+        volatile boolean referenced;
+        /** Loaded by read-ahead and not requested yet; protects the frame like a reference. */
+        volatile boolean readAhead;
+
+        Frame(Page page, int slot, boolean referenced) {
+            this.page = page;
+            this.slot = slot;
+            this.referenced = referenced;
+        }
+
+        /** Sets the reference bit; skips the write if it is already set. */
+        void touch() {
+            if (!referenced)
+                referenced = true;
+        }
+
+        /** @return true if the frame may be recycled without a second chance */
+        boolean idle() {
+            return !referenced && !readAhead && page.isDirty() == null;
+        }
+    }
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        // some code goes here
+        this.numPages = numPages;
+        int nstripes = 1;
+        while (nstripes < MAX_STRIPES
+                && nstripes < 4 * Runtime.getRuntime().availableProcessors())
+            nstripes <<= 1;
+        this.stripes = new Object[nstripes];
+        for (int i = 0; i < nstripes; i++)
+            stripes[i] = new Object();
+        this.pages = new ConcurrentHashMap<PageId, Frame>(numPages, 0.75f, nstripes);
+        this.clock = new AtomicReferenceArray<Frame>(numPages);
+        this.freeSlots = new ConcurrentLinkedQueue<Integer>();
+        for (int i = 0; i < numPages; i++)
+            freeSlots.add(i);
+    }
+
+    /**
+     * A hint passed to getPage describing how a sequential scan is going to
+     * access pages.  A strategy may have a bulk-read ring: misses are loaded
+     * into a fixed set of frames that the scan cycles through, recycling the
+     * oldest one on each miss unless another reader has referenced or
+     * dirtied it in the meantime.  It may also have a ReadAhead that loads
+     * pages ahead of the scan.
+     * <p>
+     * A strategy belongs to a single scan.  Its ring is shared with the
+     * scan's read-ahead and guarded by the strategy's monitor.
+     */
+    public static class AccessStrategy {
+        private final Frame[] ring;
+        private int next = 0;
+        private ReadAhead readAhead;
+
+        private AccessStrategy(int ringSize) {
+            ring = (ringSize > 0) ? new Frame[ringSize] : null;
+        }
+
+        /**
+         * Claims the next ring position for a load, so that the scan and its
+         * read-ahead never recycle the same frame.
+         *
+         * @return the claimed position
+         */
+        private synchronized int claim() {
+            int pos = next;
+            next = (next + 1) % ring.length;
+            return pos;
+        }
+
+        private synchronized Frame get(int pos) {
+            return ring[pos];
+        }
+
+        private synchronized void set(int pos, Frame frame) {
+            ring[pos] = frame;
+        }
+
+        /** Stops any read-ahead still pending for this scan. */
+        public void close() {
+            if (readAhead != null)
+                readAhead.cancel();
+        }
+    }
+
+    /**
+     * Returns the access strategy a sequential scan of scanPages pages
+     * should pass to getPage.  The strategy has a bulk-read ring if the scan
+     * is larger than this pool, and reads ahead unless read-ahead is off.
+     *
+     * @param scanPages the number of pages the scan will read
+     * @return the strategy, or null if the scan can go through the pool
+     *   normally
+     */
+    public AccessStrategy scanStrategy(int scanPages) {
+        int ringSize = 0;
+        int window = readAheadPages;
+        if (scanPages > numPages) {
+            ringSize = Math.max(1, Math.min(BULK_READ_RING_SIZE, numPages / 4));
+            // stay well clear of the frames the scan has yet to read
+            window = Math.min(window, ringSize / 4);
+        }
+        if (ringSize == 0 && window == 0)
+            return null;
+        AccessStrategy strategy = new AccessStrategy(ringSize);
+        if (window > 0)
+            strategy.readAhead = new ReadAhead(this, strategy, window, scanPages);
+        return strategy;
+    }
+
+    /**
+     * Sets how many pages sequential scans opened from now on read ahead of
+     * themselves.
+     *
+     * @param pages the read-ahead window; 0 turns read-ahead off
+     */
+    public void setReadAheadPages(int pages) {
+        readAheadPages = pages;
+    }
+
+    /** @return the monitor guarding loads and removals of pid */
+    private Object stripeFor(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
     }
     
     public static int getPageSize() {
       return pageSize;
     }
     
+    /** Per-thread buffers for serializing pages on their way to disk. */
+    private static final ThreadLocal<ByteBuffer> pageBuffers = new ThreadLocal<ByteBuffer>();
+
+    /**
+     * Returns this thread's page buffer, cleared and limited to the page
+     * size.  The buffer is reused by the next call on the same thread, so
+     * it must not be held on to.
+     */
+    static ByteBuffer pageBuffer() {
+        ByteBuffer buf = pageBuffers.get();
+        if (buf == null || buf.capacity() != pageSize) {
+            buf = ByteBuffer.allocateDirect(pageSize);
+            pageBuffers.set(buf);
+        }
+        buf.clear();
+        return buf;
+    }
+
     // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
     public static void setPageSize(int pageSize) {
     	BufferPool.pageSize = pageSize;
@@ -66,8 +265,155 @@ public class BufferPool {
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        // some code goes here
-        return null;
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page as {@link #getPage(TransactionId, PageId,
+     * Permissions)} does, using the given access strategy.  Pages a bulk-read
+     * strategy loads are recycled within its ring, start out unreferenced,
+     * and are not marked referenced when the strategy hits on them.
+     *
+     * @param strategy how the caller accesses pages, or null for the default
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm,
+            AccessStrategy strategy)
+        throws TransactionAbortedException, DbException {
+        boolean bulkRead = strategy != null && strategy.ring != null;
+        Frame frame = pages.get(pid);
+        if (frame == null) {
+            // reserve a slot before taking the stripe, so that eviction (which
+            // locks the victim's stripe) never runs while we hold one
+            if (bulkRead) {
+                int pos = strategy.claim();
+                frame = load(pid, reserveRingSlot(strategy, pos, false), strategy, pos, false);
+            } else {
+                frame = load(pid, reserveSlot(), strategy, -1, false);
+            }
+        }
+        if (!bulkRead)
+            frame.touch();
+        if (frame.readAhead)
+            frame.readAhead = false;
+        if (strategy != null && strategy.readAhead != null)
+            strategy.readAhead.accessed(pid);
+        return frame.page;
+    }
+
+    /**
+     * Loads pid on behalf of a scan's read-ahead, unless making room for it
+     * would push out a page that is still referenced.
+     *
+     * @return false if the pool is under too much pressure to take the page
+     */
+    boolean readAhead(PageId pid, AccessStrategy strategy) throws DbException {
+        if (pages.containsKey(pid))
+            return true;
+        int pos = -1;
+        int slot;
+        if (strategy.ring != null) {
+            pos = strategy.claim();
+            slot = reserveRingSlot(strategy, pos, true);
+        } else {
+            slot = reserveIdleSlot();
+        }
+        if (slot < 0)
+            return false;
+        load(pid, slot, strategy, pos, true);
+        return true;
+    }
+
+    /**
+     * Reads pid into the reserved slot, unless another thread loaded it
+     * first, in which case the slot is released again.  New frames start out
+     * unreferenced.
+     *
+     * @param pos the ring position claimed for the load, or -1
+     * @param readAhead whether the load is a read-ahead; these are dropped
+     *   once the scan has gone past pid
+     * @return the frame holding pid, or null if a read-ahead was dropped
+     */
+    private Frame load(PageId pid, int slot, AccessStrategy strategy, int pos,
+            boolean readAhead) throws DbException {
+        Frame frame;
+        boolean loaded = false;
+        try {
+            synchronized (stripeFor(pid)) {
+                frame = pages.get(pid);
+                // checked under the stripe lock, so the scan cannot load
+                // and recycle pid between the check and the read
+                if (frame == null && !(readAhead && strategy.readAhead.passed(pid))) {
+                    DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                    frame = new Frame(file.readPage(pid), slot, false);
+                    frame.readAhead = readAhead;
+                    clock.set(slot, frame);
+                    pages.put(pid, frame);
+                    loaded = true;
+                }
+            }
+        } finally {
+            // someone else loaded the page while we waited, or the read failed
+            if (!loaded)
+                freeSlots.add(slot);
+        }
+        if (pos >= 0)
+            strategy.set(pos, loaded ? frame : null);
+        return frame;
+    }
+
+    /**
+     * Claims a slot for a page loaded through a bulk-read ring by recycling
+     * the frame at the claimed ring position.  Falls back to the normal path
+     * while the ring is filling up, or if that frame was referenced, dirtied
+     * or evicted since the ring loaded it, or was read ahead and has not been
+     * requested yet.
+     *
+     * @param pos the ring position claimed for the load
+     * @param readAhead true to fall back to {@link #reserveIdleSlot} rather
+     *   than evicting
+     */
+    private int reserveRingSlot(AccessStrategy strategy, int pos, boolean readAhead)
+        throws DbException {
+        Frame old = strategy.get(pos);
+        if (old != null && old.idle()) {
+            PageId oldPid = old.page.getId();
+            synchronized (stripeFor(oldPid)) {
+                if (old.idle() && pages.remove(oldPid, old)) {
+                    clock.compareAndSet(old.slot, old, null);
+                    return old.slot;
+                }
+            }
+        }
+        return readAhead ? reserveIdleSlot() : reserveSlot();
+    }
+
+    /**
+     * Claims a slot without taking any page's second chance away: a free
+     * slot, or the first idle frame within one turn of the CLOCK hand.
+     *
+     * @return the slot, or a negative value if there is none
+     */
+    private int reserveIdleSlot() {
+        Integer slot = freeSlots.poll();
+        if (slot != null)
+            return slot;
+        return sweep(numPages, false);
+    }
+
+    /**
+     * Claims an empty slot for a page about to be loaded, evicting pages
+     * until one is available.
+     */
+    private int reserveSlot() throws DbException {
+        while (true) {
+            Integer slot = freeSlots.poll();
+            if (slot != null)
+                return slot;
+            int victim = evictPage();
+            if (victim >= 0)
+                return victim;
+            Thread.yield();
+        }
     }
 
     /**
@@ -131,8 +477,9 @@ public class BufferPool {
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        // not necessary for lab1
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        for (Page page : file.insertTuple(tid, t))
+            cacheDirty(tid, page);
     }
 
     /**
@@ -150,8 +497,42 @@ public class BufferPool {
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tuple is not stored in a table");
+        DbFile file = Database.getCatalog().getDatabaseFile(rid.getPageId().getTableId());
+        for (Page page : file.deleteTuple(tid, t))
+            cacheDirty(tid, page);
+    }
+
+    /**
+     * Marks a page dirtied by tid and makes sure it is the resident version
+     * of its page: a page fetched clean may have been evicted again before
+     * it was changed.
+     */
+    private void cacheDirty(TransactionId tid, Page page) throws DbException {
+        page.markDirty(true, tid);
+        PageId pid = page.getId();
+        Frame frame = pages.get(pid);
+        if (frame != null && frame.page == page) {
+            frame.touch();
+            return;
+        }
+        int slot = reserveSlot();
+        synchronized (stripeFor(pid)) {
+            Frame old = pages.get(pid);
+            if (old != null && old.page == page) {
+                freeSlots.add(slot);
+                return;
+            }
+            if (old != null) {
+                clock.compareAndSet(old.slot, old, null);
+                freeSlots.add(old.slot);
+            }
+            frame = new Frame(page, slot, true);
+            clock.set(slot, frame);
+            pages.put(pid, frame);
+        }
     }
 
     /**
@@ -160,9 +541,8 @@ public class BufferPool {
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-        // some code goes here
-        // not necessary for lab1
-
+        for (PageId pid : pages.keySet())
+            flushPage(pid);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -173,34 +553,99 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
-        // some code goes here
-        // not necessary for lab1
+    public void discardPage(PageId pid) {
+        synchronized (stripeFor(pid)) {
+            Frame frame = pages.remove(pid);
+            if (frame != null) {
+                clock.compareAndSet(frame.slot, frame, null);
+                freeSlots.add(frame.slot);
+            }
+        }
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
-        // some code goes here
-        // not necessary for lab1
+    private void flushPage(PageId pid) throws IOException {
+        synchronized (stripeFor(pid)) {
+            Frame frame = pages.get(pid);
+            if (frame == null || frame.page.isDirty() == null)
+                return;
+            Page page = frame.page;
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            file.writePage(page);
+            page.markDirty(false, null);
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2|lab3|lab4
+        for (Frame frame : pages.values()) {
+            if (tid.equals(frame.page.isDirty()))
+                flushPage(frame.page.getId());
+        }
+    }
+
+    /**
+     * Discards a page from the buffer pool, choosing the victim with the
+     * CLOCK hand: referenced frames (and read-ahead frames not requested
+     * yet) get their bit cleared and a second chance, and the first
+     * unreferenced clean frame is evicted.
+     * Under NO STEAL, dirty pages are never chosen, so nothing needs to be
+     * written back.
+     *
+     * @return the freed slot, or -1 if no victim was found only because the
+     *   remaining slots are reserved by loads still in progress
+     * @throws DbException if every resident page is dirty
+     */
+    private int evictPage() throws DbException {
+        // the first turn may do nothing but clear reference bits
+        int slot = sweep(2 * numPages, true);
+        if (slot == SWEEP_ALL_DIRTY)
+            throw new DbException("all pages in the buffer pool are dirty");
+        return slot;
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Advances the CLOCK hand up to steps slots looking for an idle frame,
+     * and evicts the first one found.
+     *
+     * @param clearReferenced whether to clear the reference bits passed over
+     * @return the freed slot, SWEEP_RETRY if some slots were empty (reserved
+     *   by loads in progress), or SWEEP_ALL_DIRTY otherwise
      */
-    private synchronized  void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for lab1
+    private int sweep(int steps, boolean clearReferenced) {
+        synchronized (evictLock) {
+            boolean sawEmpty = false;
+            for (int n = 0; n < steps; n++) {
+                int slot = hand;
+                hand = (hand + 1) % numPages;
+                Frame frame = clock.get(slot);
+                if (frame == null) {
+                    sawEmpty = true;
+                    continue;
+                }
+                if (frame.page.isDirty() != null)
+                    continue;
+                if (frame.referenced || frame.readAhead) {
+                    if (clearReferenced) {
+                        frame.referenced = false;
+                        frame.readAhead = false;
+                    }
+                    continue;
+                }
+                PageId pid = frame.page.getId();
+                synchronized (stripeFor(pid)) {
+                    if (frame.idle() && pages.remove(pid, frame)) {
+                        clock.compareAndSet(slot, frame, null);
+                        return slot;
+                    }
+                }
+            }
+            return sawEmpty ? SWEEP_RETRY : SWEEP_ALL_DIRTY;
+        }
     }
 
 }
@@ -18,12 +18,29 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class Catalog {
 
+    /** One catalog entry: the table's backing file, name and primary key. */
+    private static class Table {
+        final DbFile file;
+        final String name;
+        final String pkeyField;
+
+        Table(DbFile file, String name, String pkeyField) {
+            this.file = file;
+            this.name = name;
+            this.pkeyField = pkeyField;
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, Table> idToTable;
+    private final ConcurrentHashMap<String, Integer> nameToId;
+
     /**
      * Constructor.
      * Creates a new, empty catalog.
      */
     public Catalog() {
-        // some code goes here
+        idToTable = new ConcurrentHashMap<Integer, Table>();
+        nameToId = new ConcurrentHashMap<String, Integer>();
     }
 
     /**
@@ -35,8 +52,21 @@ public class Catalog {
      * conflict exists, use the last table to be added as the table for a given name.
      * @param pkeyField the name of the primary key field
      */
-    public void addTable(DbFile file, String name, String pkeyField) {
-        // some code goes here
+    public synchronized void addTable(DbFile file, String name, String pkeyField) {
+        if (name == null)
+            throw new IllegalArgumentException("table name may not be null");
+        int id = file.getId();
+        // drop whatever previously used this name or this id
+        Integer oldId = nameToId.remove(name);
+        if (oldId != null)
+            release(idToTable.remove(oldId), file);
+        Table old = idToTable.remove(id);
+        if (old != null) {
+            nameToId.remove(old.name);
+            release(old, file);
+        }
+        idToTable.put(id, new Table(file, name, pkeyField));
+        nameToId.put(name, id);
     }
 
     public void addTable(DbFile file, String name) {
@@ -59,8 +89,10 @@ public class Catalog {
      * @throws NoSuchElementException if the table doesn't exist
      */
     public int getTableId(String name) throws NoSuchElementException {
-        // some code goes here
-        return 0;
+        Integer id = (name == null) ? null : nameToId.get(name);
+        if (id == null)
+            throw new NoSuchElementException("no table named " + name);
+        return id;
     }
 
     /**
@@ -70,8 +102,7 @@ public class Catalog {
      * @throws NoSuchElementException if the table doesn't exist
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
-        // some code goes here
-        return null;
+        return getTable(tableid).file.getTupleDesc();
     }
 
     /**
@@ -81,28 +112,57 @@ public class Catalog {
      *     function passed to addTable
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
-        // some code goes here
-        return null;
+        return getTable(tableid).file;
     }
 
     public String getPrimaryKey(int tableid) {
-        // some code goes here
-        return null;
+        return getTable(tableid).pkeyField;
     }
 
     public Iterator<Integer> tableIdIterator() {
-        // some code goes here
-        return null;
+        return idToTable.keySet().iterator();
     }
 
     public String getTableName(int id) {
-        // some code goes here
-        return null;
+        return getTable(id).name;
     }
     
+    /**
+     * Drops a table from the catalog and closes its file; the file itself
+     * is left on disk.  Does nothing if there is no such table.
+     */
+    public synchronized void removeTable(int tableid) {
+        Table t = idToTable.remove(tableid);
+        if (t == null)
+            return;
+        nameToId.remove(t.name, tableid);
+        release(t, null);
+    }
+
     /** Delete all tables from the catalog */
-    public void clear() {
-        // some code goes here
+    public synchronized void clear() {
+        for (Table t : idToTable.values())
+            release(t, null);
+        idToTable.clear();
+        nameToId.clear();
+    }
+
+    /** Closes the file of a dropped table, unless it is being added again. */
+    private static void release(Table t, DbFile keep) {
+        if (t == null || t.file == keep || !(t.file instanceof HeapFile))
+            return;
+        try {
+            ((HeapFile) t.file).close();
+        } catch (IOException e) {
+            // nothing was written through the channel that is not on disk
+        }
+    }
+
+    private Table getTable(int tableid) throws NoSuchElementException {
+        Table t = idToTable.get(tableid);
+        if (t == null)
+            throw new NoSuchElementException("no table with id " + tableid);
+        return t;
     }
     
     /**
@@ -131,6 +191,8 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().toLowerCase().equals("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().toLowerCase().equals("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -147,7 +209,10 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                // tables with varchar fields store them in slotted pages
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf = types.contains(Type.VARCHAR_TYPE)
+                        ? new SlottedFile(dataFile, t) : new HeapFile(dataFile, t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
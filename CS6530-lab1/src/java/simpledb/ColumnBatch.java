@@ -0,0 +1,249 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * A batch of rows stored by column, filled by {@link DbIterator#nextColumns}
+ * and {@link DbFileIterator#nextColumns}: an int[] vector for each
+ * {@link Type#INT_TYPE} column, and for each string column a slab of
+ * {@link Type#STRING_LEN} bytes per row with an int[] of lengths.  Operators
+ * such as {@link Predicate#filter(ColumnBatch)} then run as loops over
+ * arrays, which the JIT can unroll and vectorize.
+ * <p>
+ * The rows of a batch that are still selected are given by a selection
+ * vector: until a filter narrows it, every row in [0, size()) is selected.
+ * Consumers loop over {@link #numSelected} rows, finding each through
+ * {@link #selected}.
+ * <p>
+ * A batch is meant to be reused: clear() keeps its vectors.
+ */
+public class ColumnBatch {
+
+    /** The number of rows a batch holds unless told otherwise. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    /** For each column, its values if it is an int column, else null. */
+    private final int[][] ints;
+    /** For each column, its bytes and lengths if it is a string column. */
+    private final byte[][] chars;
+    private final int[][] lengths;
+    private int size = 0;
+
+    /** If dense, all rows are selected; else the first selected rows in sel. */
+    private boolean dense = true;
+    private final int[] sel;
+    private int selected;
+
+    /**
+     * Creates an empty batch of {@link #DEFAULT_CAPACITY} rows of the
+     * specified schema.
+     */
+    public ColumnBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch of up to capacity rows of the specified schema.
+     */
+    public ColumnBatch(TupleDesc td, int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("a batch needs room for a row");
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        ints = new int[n][];
+        chars = new byte[n][];
+        lengths = new int[n][];
+        for (int c = 0; c < n; c++) {
+            if (td.getFieldType(c) == Type.INT_TYPE) {
+                ints[c] = new int[capacity];
+            } else {
+                chars[c] = new byte[capacity * Type.STRING_LEN];
+                lengths[c] = new int[capacity];
+            }
+        }
+        sel = new int[capacity];
+    }
+
+    /** @return the schema of the rows */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows in the batch, selected or not */
+    public int size() {
+        return size;
+    }
+
+    /** @return the number of rows the batch can hold */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return true if the batch holds capacity() rows */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** Empties the batch. */
+    public void clear() {
+        size = 0;
+        dense = true;
+    }
+
+    /**
+     * @return the values of int column col; rows [0, size()) are valid
+     * @throws ClassCastException if the column is not an int column
+     */
+    public int[] ints(int col) {
+        if (ints[col] == null)
+            throw new ClassCastException("column " + col + " is not an int");
+        return ints[col];
+    }
+
+    /**
+     * @return the bytes of string column col, Type.STRING_LEN per row, of
+     *   which the first {@link #lengths}[row] are the value
+     * @throws ClassCastException if the column is not a string column
+     */
+    public byte[] chars(int col) {
+        if (chars[col] == null)
+            throw new ClassCastException("column " + col + " is not a string");
+        return chars[col];
+    }
+
+    /**
+     * @return the lengths of the values of string column col
+     * @throws ClassCastException if the column is not a string column
+     */
+    public int[] lengths(int col) {
+        if (lengths[col] == null)
+            throw new ClassCastException("column " + col + " is not a string");
+        return lengths[col];
+    }
+
+    /** @return the value of int column col in a row */
+    public int getInt(int col, int row) {
+        return ints(col)[row];
+    }
+
+    /** @return the value of string column col in a row */
+    public String getString(int col, int row) {
+        // as Type.parse decodes strings
+        return new String(chars(col), row * Type.STRING_LEN, lengths[col][row]);
+    }
+
+    /** @return a new Field holding the value of column col in a row */
+    public Field getField(int col, int row) {
+        Type type = td.getFieldType(col);
+        if (type == Type.INT_TYPE)
+            return new IntField(ints[col][row]);
+        if (type == Type.VARCHAR_TYPE)
+            return new VarcharField(getString(col, row), Type.STRING_LEN);
+        return new StringField(getString(col, row), Type.STRING_LEN);
+    }
+
+    /** @return a new tuple holding the values of a row */
+    public RowTuple toTuple(int row) {
+        RowTuple t = new RowTuple(td);
+        for (int c = 0; c < td.numFields(); c++)
+            t.setField(c, getField(c, row));
+        return t;
+    }
+
+    /**
+     * Appends the values of t as a row, selected if all rows are.
+     * @throws IllegalStateException if the batch is full
+     */
+    public void add(Tuple t) {
+        int row = newRow();
+        for (int c = 0; c < ints.length; c++) {
+            if (ints[c] != null) {
+                ints[c][row] = t.getInt(c);
+            } else {
+                String s = t.getString(c);
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                int off = row * Type.STRING_LEN;
+                // like StringField.serialize, keeps the low byte of each char
+                for (int i = 0; i < len; i++)
+                    chars[c][off + i] = (byte) s.charAt(i);
+                lengths[c][row] = len;
+            }
+        }
+    }
+
+    /**
+     * Appends the tuple stored at the absolute offset off of data, laid
+     * out as on a HeapPage, as a row.
+     * @throws IllegalStateException if the batch is full
+     */
+    void add(ByteBuffer data, int off) {
+        int row = newRow();
+        for (int c = 0; c < ints.length; c++) {
+            int at = off + td.getOffset(c);
+            if (ints[c] != null) {
+                ints[c][row] = data.getInt(at);
+                continue;
+            }
+            int len = data.getInt(at);
+            if (len < 0 || len > Type.STRING_LEN)
+                throw new NoSuchElementException("parsing error!");
+            int dst = row * Type.STRING_LEN;
+            if (data.hasArray()) {
+                System.arraycopy(data.array(), data.arrayOffset() + at + 4,
+                        chars[c], dst, len);
+            } else {
+                for (int i = 0; i < len; i++)
+                    chars[c][dst + i] = data.get(at + 4 + i);
+            }
+            lengths[c][row] = len;
+        }
+    }
+
+    private int newRow() {
+        if (size == capacity)
+            throw new IllegalStateException("batch is full");
+        if (!dense)
+            sel[selected++] = size;
+        return size++;
+    }
+
+    /** @return true if every row of the batch is selected */
+    public boolean isDense() {
+        return dense;
+    }
+
+    /** @return the number of selected rows */
+    public int numSelected() {
+        return dense ? size : selected;
+    }
+
+    /** @return the row of the ith selected row */
+    public int selected(int i) {
+        return dense ? i : sel[i];
+    }
+
+    /**
+     * Returns the selection vector, for filters to narrow in place: the
+     * first numSelected() entries are the selected rows, in increasing
+     * order, unless isDense().  A filter writes the rows it keeps to the
+     * front of the vector and calls {@link #select}.
+     */
+    public int[] selection() {
+        return sel;
+    }
+
+    /**
+     * Narrows the selection to the first n rows of the selection vector.
+     */
+    public void select(int n) {
+        if (n < 0 || n > numSelected())
+            throw new IllegalArgumentException("cannot select " + n + " of "
+                    + numSelected() + " rows");
+        dense = false;
+        selected = n;
+    }
+}
@@ -27,6 +27,36 @@ public interface DbFileIterator{
     public Tuple next()
         throws DbException, TransactionAbortedException, NoSuchElementException;
 
+    /**
+     * Replaces the contents of batch with the next tuples, up to the
+     * batch's capacity; see {@link DbIterator#nextBatch}.
+     *
+     * @return true if any tuples were added, false if there are no more
+     *   or the iterator isn't open
+     */
+    default boolean nextBatch(TupleBatch batch)
+        throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && hasNext())
+            batch.add(next());
+        return batch.size() > 0;
+    }
+
+    /**
+     * Replaces the contents of batch with the next tuples, stored by column,
+     * up to the batch's capacity; see {@link DbIterator#nextColumns}.
+     *
+     * @return true if any tuples were added, false if there are no more
+     *   or the iterator isn't open
+     */
+    default boolean nextColumns(ColumnBatch batch)
+        throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && hasNext())
+            batch.add(next());
+        return batch.size() > 0;
+    }
+
     /**
      * Resets the iterator to the start.
      * @throws DbException When rewind is unsupported.
@@ -34,6 +34,42 @@ public interface DbIterator extends Serializable{
    */
   public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException;
 
+  /**
+   * Replaces the contents of batch with the next tuples from the operator,
+   * up to the batch's capacity, so that consumers can process many tuples
+   * per call.  Tuples in the batch may only be valid until batch is next
+   * filled (see {@link TupleBatch}).  By default this calls hasNext() and
+   * next() for each tuple; operators that produce tuples in bulk override
+   * it.
+   *
+   * @return true if any tuples were added, false if there are no more
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  default boolean nextBatch(TupleBatch batch)
+      throws DbException, TransactionAbortedException {
+    batch.clear();
+    while (!batch.isFull() && hasNext())
+      batch.add(next());
+    return batch.size() > 0;
+  }
+
+  /**
+   * Replaces the contents of batch with the next tuples, stored by column,
+   * up to the batch's capacity; every row of the batch is selected.  This
+   * default copies each tuple next() returns into the batch; scans override
+   * it to fill the column vectors straight from their pages.
+   *
+   * @return true if any tuples were added, false if there are no more
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  default boolean nextColumns(ColumnBatch batch)
+      throws DbException, TransactionAbortedException {
+    batch.clear();
+    while (!batch.isFull() && hasNext())
+      batch.add(next());
+    return batch.size() > 0;
+  }
+
   /**
    * Resets the iterator to the start.
    * @throws DbException when rewind is unsupported.
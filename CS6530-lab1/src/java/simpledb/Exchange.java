@@ -0,0 +1,310 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * An Exchange moves tuples from producers running in parallel on a
+ * {@link MorselScheduler} to one or more consumers, each of them an
+ * ordinary DbIterator that a thread of its own can drive through any plan
+ * built on it.  Operators thus run in parallel without being aware of
+ * threads: the producers are the morsels of a {@link Pipeline} or a list of
+ * DbIterators (such as the consumers of another Exchange), and the
+ * consumers read what they produce in batches, through lock-free bounded
+ * queues.
+ * <p>
+ * An Exchange can
+ * <ul>
+ * <li>{@link Mode#GATHER} all tuples to a single consumer,
+ * <li>{@link Mode#REPARTITION} them among its consumers by the hash of a
+ * field, so that tuples with equal values of the field go to the same
+ * consumer, or
+ * <li>{@link Mode#BROADCAST} every tuple to every consumer.
+ * </ul>
+ * The producers start when the first consumer is opened.  A consumer is
+ * read once: it can be neither rewound nor reopened.  Tuples a consumer
+ * returns are not in any particular order.
+ */
+public class Exchange {
+
+    /** How an Exchange hands tuples to its consumers. */
+    public enum Mode {
+        GATHER, REPARTITION, BROADCAST
+    }
+
+    /** Batches each consumer's queue holds per worker of the scheduler. */
+    private static final int QUEUE_BATCHES = 2;
+
+    /** Put on each queue once the producers are done. */
+    private static final TupleBatch END = new TupleBatch(1);
+
+    private final MorselScheduler scheduler;
+    private final Pipeline pipeline;
+    private final List<? extends DbIterator> producers;
+    private final TupleDesc td;
+    private final Mode mode;
+    private final int field;
+    private final BatchQueue[] queues;
+    private final Consumer[] consumers;
+    /** Emptied batches, for producers to fill again. */
+    private final ConcurrentLinkedQueue<TupleBatch> free =
+            new ConcurrentLinkedQueue<TupleBatch>();
+
+    // the following are guarded by this
+    private MorselScheduler.Job job;
+    private int closed = 0;
+
+    /**
+     * Creates an exchange from the morsels of a pipeline, run on the
+     * default scheduler.
+     *
+     * @param consumers the number of consumers; 1 to GATHER
+     * @param field the field to REPARTITION on; ignored by other modes
+     */
+    public Exchange(Pipeline producer, Mode mode, int consumers, int field) {
+        this(MorselScheduler.getDefault(), producer, mode, consumers, field);
+    }
+
+    /**
+     * Creates an exchange from the morsels of a pipeline, run on scheduler.
+     */
+    public Exchange(MorselScheduler scheduler, Pipeline producer, Mode mode,
+            int consumers, int field) {
+        this(scheduler, producer, null, producer.getTupleDesc(), mode,
+                consumers, field);
+    }
+
+    /**
+     * Creates an exchange from producers, each drained on a worker of the
+     * default scheduler.  The producers must all have the same schema.
+     *
+     * @param consumers the number of consumers; 1 to GATHER
+     * @param field the field to REPARTITION on; ignored by other modes
+     */
+    public Exchange(List<? extends DbIterator> producers, Mode mode,
+            int consumers, int field) {
+        this(MorselScheduler.getDefault(), producers, mode, consumers, field);
+    }
+
+    /**
+     * Creates an exchange from producers, each drained on a worker of
+     * scheduler.
+     */
+    public Exchange(MorselScheduler scheduler, List<? extends DbIterator> producers,
+            Mode mode, int consumers, int field) {
+        this(scheduler, null, new ArrayList<DbIterator>(producers),
+                producers.get(0).getTupleDesc(), mode, consumers, field);
+    }
+
+    private Exchange(MorselScheduler scheduler, Pipeline pipeline,
+            List<? extends DbIterator> producers, TupleDesc td, Mode mode,
+            int consumers, int field) {
+        if (consumers < 1 || (mode == Mode.GATHER && consumers != 1))
+            throw new IllegalArgumentException(mode + " to " + consumers
+                    + " consumers");
+        if (mode == Mode.REPARTITION && (field < 0 || field >= td.numFields()))
+            throw new IllegalArgumentException("no field " + field + " to repartition on");
+        this.scheduler = scheduler;
+        this.pipeline = pipeline;
+        this.producers = producers;
+        this.td = td;
+        this.mode = mode;
+        this.field = field;
+        this.queues = new BatchQueue[consumers];
+        this.consumers = new Consumer[consumers];
+        for (int i = 0; i < consumers; i++) {
+            queues[i] = new BatchQueue(scheduler.getParallelism() * QUEUE_BATCHES);
+            this.consumers[i] = new Consumer(i);
+        }
+    }
+
+    /** @return the schema of the tuples the exchange moves */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return how the exchange hands tuples to its consumers */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /** @return the number of consumers */
+    public int numConsumers() {
+        return consumers.length;
+    }
+
+    /**
+     * @return the ith consumer, an iterator over the tuples handed to it
+     */
+    public DbIterator getConsumer(int i) {
+        return consumers[i];
+    }
+
+    /** Starts the producers, if no consumer has yet. */
+    private synchronized void start() {
+        if (job != null)
+            return;
+        TupleSink sink = new TupleSink() {
+            public void consume(TupleBatch batch) {
+                route(batch);
+            }
+        };
+        Runnable end = new Runnable() {
+            public void run() {
+                for (BatchQueue q : queues)
+                    q.put(END);
+            }
+        };
+        job = (pipeline != null)
+                ? scheduler.submit(pipeline, sink, end)
+                : scheduler.submit(producers, sink, end);
+    }
+
+    private synchronized MorselScheduler.Job job() {
+        return job;
+    }
+
+    /** Puts the tuples of batch on the queues of their consumers. */
+    private void route(TupleBatch batch) {
+        int n = queues.length;
+        if (mode != Mode.REPARTITION) {
+            for (int i = 0; i < n; i++) {
+                TupleBatch copy = batch();
+                for (int j = 0; j < batch.size(); j++)
+                    copy.add(batch.get(j));
+                put(i, copy);
+            }
+            return;
+        }
+        TupleBatch[] out = new TupleBatch[n];
+        for (int j = 0; j < batch.size(); j++) {
+            Tuple t = batch.get(j);
+            int p = partition(t, n);
+            if (out[p] == null)
+                out[p] = batch();
+            out[p].add(t);
+            if (out[p].isFull()) {
+                put(p, out[p]);
+                out[p] = null;
+            }
+        }
+        for (int p = 0; p < n; p++) {
+            if (out[p] != null)
+                put(p, out[p]);
+        }
+    }
+
+    /** @return the consumer, of n, that t goes to */
+    private int partition(Tuple t, int n) {
+        int h = (td.getFieldType(field) == Type.INT_TYPE)
+                ? t.getInt(field) : t.getField(field).hashCode();
+        // spread the bits, as consecutive keys would otherwise stay in order
+        h *= 0x9e3779b9;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % n;
+    }
+
+    /** @return an empty batch, reused from those consumers have emptied */
+    private TupleBatch batch() {
+        TupleBatch batch = free.poll();
+        return (batch != null) ? batch : new TupleBatch(MorselScheduler.BATCH_TUPLES);
+    }
+
+    private void put(int consumer, TupleBatch batch) {
+        if (!queues[consumer].put(batch)) {
+            batch.clear();
+            free.offer(batch);
+        }
+    }
+
+    /**
+     * Closes a consumer's queue; once all consumers are closed, stops the
+     * producers and waits for them to finish.
+     */
+    private void closeConsumer(int consumer) {
+        queues[consumer].close();
+        MorselScheduler.Job stopping;
+        synchronized (this) {
+            if (++closed < queues.length || job == null)
+                return;
+            stopping = job;
+        }
+        stopping.cancel();
+        try {
+            stopping.await();
+        } catch (Exception e) {
+            // every consumer is closed; the producers' errors no longer matter
+        }
+    }
+
+    /** The iterator over the tuples handed to one consumer. */
+    private class Consumer extends AbstractBatchDbIterator {
+        private static final long serialVersionUID = 1L;
+
+        private final int index;
+        private boolean opened = false;
+        private boolean finished = false;
+        /** The batch being returned; tuples before pos have been. */
+        private TupleBatch pending;
+        private int pos;
+
+        Consumer(int index) {
+            this.index = index;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            if (opened)
+                throw new DbException("an exchange consumer cannot be reopened");
+            opened = true;
+            start();
+        }
+
+        protected boolean readBatch(TupleBatch batch)
+                throws DbException, TransactionAbortedException {
+            if (!opened)
+                throw new IllegalStateException("exchange consumer not open");
+            while (!batch.isFull()) {
+                if (pending == null || pos == pending.size()) {
+                    if (pending != null) {
+                        pending.clear();
+                        free.offer(pending);
+                        pending = null;
+                    }
+                    if (finished || batch.size() > 0)
+                        break;
+                    TupleBatch next = queues[index].take();
+                    if (next == END) {
+                        finished = true;
+                        // throws the first error a producer hit, if any
+                        job().await();
+                        break;
+                    }
+                    pending = next;
+                    pos = 0;
+                }
+                batch.add(pending.get(pos++));
+            }
+            return batch.size() > 0;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        /** @throws DbException exchanges cannot be rewound */
+        public void rewind() throws DbException {
+            throw new DbException("an exchange consumer cannot be rewound");
+        }
+
+        public void close() {
+            super.close();
+            if (!opened || queues[index].isClosed())
+                return;
+            if (pending != null)
+                pending.clear();
+            pending = null;
+            closeConsumer(index);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -14,6 +15,13 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field to buf at its position, as
+     * {@link #serialize(DataOutputStream)} would, advancing the position.
+     * @param buf The buffer to write to.
+     */
+    void serialize(ByteBuffer buf);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
@@ -23,7 +31,7 @@ public interface Field extends Serializable{
     public boolean compare(Predicate.Op op, Field value);
 
     /**
-     * Returns the type of this field (see {@link Type#INT_TYPE} or {@link Type#STRING_TYPE}
+     * Returns the type of this field (see {@link Type#INT_TYPE}, {@link Type#STRING_TYPE} or {@link Type#VARCHAR_TYPE})
      * @return type of this field
      */
     public Type getType();
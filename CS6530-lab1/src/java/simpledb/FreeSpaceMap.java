@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records, for each page of a HeapFile, how much room the page
+ * has left, so that inserts can go straight to a page with an empty slot
+ * instead of probing the file from the start.
+ * <p>
+ * The map is kept in a side file next to the data file, one byte per page:
+ * 1 for a full page, and otherwise 1 plus the free fraction of the page in
+ * 254ths, rounded up, measured in slots or bytes as the page measures it
+ * (see {@link TuplePage#getFreeSpace}).  A page's byte is written whenever the page
+ * itself is written, so the side file describes the pages on disk.  Pages
+ * the side file has no byte for (0), such as pages of a file written before
+ * the map existed, are assumed to have room until a lookup finds otherwise.
+ * <p>
+ * The map is only a hint: it is not logged, and callers check the page
+ * they are pointed to and report back when it turns out to be full.
+ *
+ * @Threadsafe
+ */
+class FreeSpaceMap {
+
+    /** Appended to the data file's name to name the side file. */
+    static final String SUFFIX = ".fsm";
+
+    private final File file;
+
+    // the following are guarded by this
+    private BitSet full;
+    /** No page before this one has room. */
+    private int hint = 0;
+    private FileChannel channel;
+
+    FreeSpaceMap(File dataFile) {
+        this.file = new File(dataFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * @param numPages the number of pages in the file
+     * @return the first page that may have an empty slot, or -1 if all
+     *   numPages pages are full
+     */
+    synchronized int pageWithRoom(int numPages) throws IOException {
+        load();
+        int pgNo = full.nextClearBit(hint);
+        hint = pgNo;
+        return (pgNo < numPages) ? pgNo : -1;
+    }
+
+    /**
+     * Records whether a page has an empty slot, after a change to the page
+     * in memory or after a lookup found it full.
+     */
+    synchronized void update(int pgNo, boolean hasRoom) throws IOException {
+        load();
+        if (hasRoom) {
+            full.clear(pgNo);
+            hint = Math.min(hint, pgNo);
+        } else {
+            full.set(pgNo);
+        }
+    }
+
+    /**
+     * Records the free space of a page that was just written to disk, in
+     * memory and in the side file.
+     *
+     * @param free the free space on the page
+     * @param capacity the free space on an empty page
+     */
+    synchronized void written(int pgNo, int free, int capacity) throws IOException {
+        written(pgNo, new int[] { free }, capacity);
+    }
+
+    /**
+     * Records the free space of consecutive pages that were just written,
+     * with a single write to the side file.
+     *
+     * @param firstPgNo the first of the pages
+     * @param free the free space on each page
+     */
+    synchronized void written(int firstPgNo, int[] free, int capacity) throws IOException {
+        byte[] levels = new byte[free.length];
+        for (int i = 0; i < free.length; i++) {
+            update(firstPgNo + i, free[i] > 0);
+            levels[i] = (byte) (1 + ((long) free[i] * 254 + capacity - 1) / capacity);
+        }
+        ByteBuffer b = ByteBuffer.wrap(levels);
+        FileChannel ch = channel();
+        while (b.hasRemaining())
+            ch.write(b, firstPgNo + b.position());
+    }
+
+    /** Closes the side file; it is reopened when next written. */
+    synchronized void close() throws IOException {
+        if (channel != null)
+            channel.close();
+        channel = null;
+    }
+
+    private void load() throws IOException {
+        if (full != null)
+            return;
+        full = new BitSet();
+        if (!file.exists())
+            return;
+        byte[] levels = Files.readAllBytes(file.toPath());
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i] == 1)
+                full.set(i);
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen())
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE);
+        return channel;
+    }
+}
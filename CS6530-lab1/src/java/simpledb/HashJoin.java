@@ -0,0 +1,397 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+
+/**
+ * HashJoin joins the tuples of two children on the equality of a field of
+ * each: it builds a {@link JoinHashTable} of the left (build) child's
+ * tuples on their key, then probes it with each tuple of the right (probe)
+ * child, returning the left tuple's fields followed by the right tuple's
+ * for each match.
+ * <p>
+ * The build side is held in memory only while it fits in a memory budget.
+ * When it outgrows the budget, the join falls back to a grace hash join:
+ * the tuples of both children are partitioned on the hash of their key into
+ * temporary HeapFiles (see {@link SpillFile}), and each pair of partitions
+ * is then joined in memory, one after the other.  A build partition still
+ * too large for the budget is partitioned again, on a different hash, until
+ * its tuples have been partitioned {@link #MAX_LEVELS} times; past that the
+ * partition (whose keys are then mostly equal) is joined in memory
+ * regardless.
+ * <p>
+ * Tuples are returned in no particular order.
+ */
+public class HashJoin extends AbstractBatchDbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default bytes of build tuples held in memory: 32 MB. */
+    public static final long DEFAULT_MEMORY_BUDGET = 32L << 20;
+
+    /** Partitions the tuples are spilled to at each level; a power of two. */
+    static final int FANOUT = 32;
+
+    /** Most times a tuple is partitioned. */
+    static final int MAX_LEVELS = 3;
+
+    /**
+     * Bytes of memory a build tuple is estimated to take beyond those of its
+     * fields: the Tuple, its buffer, and the table's references to it.
+     */
+    private static final int ROW_OVERHEAD = 64;
+
+    private final TransactionId tid;
+    private final DbIterator build;
+    private final int buildField;
+    private final DbIterator probe;
+    private final int probeField;
+    /** True if both keys are ints, false if neither is. */
+    private final boolean intKeys;
+    private final TupleDesc td;
+    private final long memoryBudget;
+    private final int maxRows;
+
+    private transient JoinHashTable table;
+    /** Pairs of partitions left to join. */
+    private transient Deque<Partition> partitions;
+    /** The partition being joined, or null while joining the children. */
+    private transient Partition current;
+    /** Where probe tuples are read from, and the batch they are read into. */
+    private transient DbFileIterator probeIn;
+    private transient TupleBatch probeBatch;
+    private transient int probePos;
+    /** The probe tuple being joined, and its next matching row. */
+    private transient Tuple probeTuple;
+    private transient int match = JoinHashTable.NONE;
+
+    /**
+     * Creates a hash join with the default memory budget.
+     *
+     * @param tid the transaction spilled partitions are read in
+     * @param left the build child, whose tuples are held in the hash table
+     * @param leftField the key field of left's tuples
+     * @param right the probe child
+     * @param rightField the key field of right's tuples
+     */
+    public HashJoin(TransactionId tid, DbIterator left, int leftField,
+            DbIterator right, int rightField) {
+        this(tid, left, leftField, right, rightField, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Creates a hash join that holds at most about memoryBudget bytes of
+     * build tuples in memory.
+     *
+     * @throws IllegalArgumentException if the key fields are not comparable
+     */
+    public HashJoin(TransactionId tid, DbIterator left, int leftField,
+            DbIterator right, int rightField, long memoryBudget) {
+        Type lt = left.getTupleDesc().getFieldType(leftField);
+        Type rt = right.getTupleDesc().getFieldType(rightField);
+        if ((lt == Type.INT_TYPE) != (rt == Type.INT_TYPE))
+            throw new IllegalArgumentException("can't join " + lt + " with " + rt);
+        this.tid = tid;
+        this.build = left;
+        this.buildField = leftField;
+        this.probe = right;
+        this.probeField = rightField;
+        this.intKeys = (lt == Type.INT_TYPE);
+        this.td = TupleDesc.merge(left.getTupleDesc(), right.getTupleDesc());
+        this.memoryBudget = memoryBudget;
+        long rowSize = left.getTupleDesc().getSize() + ROW_OVERHEAD;
+        this.maxRows = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                memoryBudget / rowSize));
+    }
+
+    /** @return the bytes of build tuples the join holds in memory */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        build.open();
+        probe.open();
+        start();
+    }
+
+    /** Builds the hash table from the children, spilling if it must. */
+    private void start() throws DbException, TransactionAbortedException {
+        table = new JoinHashTable(build.getTupleDesc().getFieldType(buildField),
+                buildField);
+        partitions = new ArrayDeque<Partition>();
+        probeBatch = new TupleBatch();
+        DbFileIterator buildIn = input(build);
+        probeIn = input(probe);
+        if (!load(buildIn)) {
+            Partition[] parts = spill(buildIn, probeIn, 0);
+            for (Partition p : parts)
+                partitions.add(p);
+            probeIn = null;
+        }
+    }
+
+    /**
+     * Adds the tuples of in to the table until they are used up or it is
+     * full.
+     * @return true if all the tuples of in are in the table
+     */
+    private boolean load(DbFileIterator in)
+            throws DbException, TransactionAbortedException {
+        TupleBatch batch = new TupleBatch();
+        while (in.nextBatch(batch)) {
+            for (int i = 0; i < batch.size(); i++) {
+                Tuple t = batch.get(i);
+                // a view is only valid until the next batch is read
+                table.add((t instanceof TupleView) ? t.copy() : t);
+            }
+            if (table.size() >= maxRows)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Partitions the tuples in the table, those left in buildIn and all
+     * those of probeIn, and empties the table.
+     *
+     * @param level the number of times these tuples have been partitioned
+     * @return the partitions, on disk
+     */
+    private Partition[] spill(DbFileIterator buildIn, DbFileIterator probeIn,
+            int level) throws DbException, TransactionAbortedException {
+        Partition[] parts = new Partition[FANOUT];
+        try {
+            for (int p = 0; p < FANOUT; p++)
+                parts[p] = new Partition(level + 1);
+            for (int i = 0; i < table.size(); i++) {
+                Tuple t = table.row(i);
+                parts[partition(t, buildField, level)].build.append(t);
+            }
+            table.clear();
+            TupleBatch batch = new TupleBatch();
+            while (buildIn.nextBatch(batch)) {
+                for (int i = 0; i < batch.size(); i++) {
+                    Tuple t = batch.get(i);
+                    parts[partition(t, buildField, level)].build.append(t);
+                }
+            }
+            while (probeIn.nextBatch(batch)) {
+                for (int i = 0; i < batch.size(); i++) {
+                    Tuple t = batch.get(i);
+                    parts[partition(t, probeField, level)].probe.append(t);
+                }
+            }
+            for (Partition p : parts)
+                p.finish();
+        } catch (DbException e) {
+            delete(parts);
+            throw e;
+        } catch (TransactionAbortedException e) {
+            delete(parts);
+            throw e;
+        }
+        return parts;
+    }
+
+    private static void delete(Partition[] parts) {
+        for (Partition p : parts) {
+            if (p != null)
+                p.delete();
+        }
+    }
+
+    /**
+     * @return the partition, of FANOUT, that t goes to when it is
+     *   partitioned for the level+1th time, by its field f
+     */
+    private int partition(Tuple t, int f, int level) {
+        // int keys are read without decoding a Field, as JoinHashTable does
+        int h = intKeys ? t.getInt(f) : t.getField(f).hashCode();
+        // a different hash at each level, whose high bits pick the partition,
+        // as JoinHashTable picks slots by the low bits of another
+        h ^= level * 0x9e3779b9;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h >>> (32 - Integer.numberOfTrailingZeros(FANOUT));
+    }
+
+    /**
+     * Loads the next pair of partitions to join, partitioning it again if
+     * its build side does not fit in memory.
+     * @return false if there are none left
+     */
+    private boolean nextPartition()
+            throws DbException, TransactionAbortedException {
+        while (true) {
+            if (current != null) {
+                current.delete();
+                current = null;
+            }
+            table.clear();
+            current = partitions.poll();
+            if (current == null)
+                return false;
+            if (current.build.size() == 0 || current.probe.size() == 0)
+                continue;
+            DbFileIterator buildIn = current.buildFile.viewIterator(tid);
+            DbFileIterator in = current.probeFile.viewIterator(tid);
+            boolean joined = false;
+            try {
+                buildIn.open();
+                in.open();
+                if (!load(buildIn)) {
+                    if (current.level < MAX_LEVELS) {
+                        Partition[] parts = spill(buildIn, in, current.level);
+                        for (int p = parts.length - 1; p >= 0; p--)
+                            partitions.push(parts[p]);
+                        continue;
+                    }
+                    // too many equal keys to split: join it in memory anyway
+                    while (!load(buildIn))
+                        ;
+                }
+                joined = true;
+            } finally {
+                buildIn.close();
+                if (!joined)
+                    in.close();
+            }
+            probeIn = in;
+            return true;
+        }
+    }
+
+    protected boolean readBatch(TupleBatch batch)
+            throws DbException, TransactionAbortedException {
+        if (table == null)
+            throw new IllegalStateException("hash join not open");
+        while (!batch.isFull()) {
+            if (match != JoinHashTable.NONE) {
+                batch.add(RowTuple.concat(td, table.row(match), probeTuple));
+                match = table.next(match);
+                continue;
+            }
+            if (probePos == probeBatch.size()) {
+                probePos = 0;
+                if (probeIn == null || !probeIn.nextBatch(probeBatch)) {
+                    probeBatch.clear();
+                    if (probeIn != null)
+                        probeIn.close();
+                    probeIn = null;
+                    if (batch.size() > 0 || !nextPartition())
+                        break;
+                    continue;
+                }
+            }
+            probeTuple = probeBatch.get(probePos++);
+            match = table.first(probeTuple, probeField);
+        }
+        return batch.size() > 0;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clear();
+        build.rewind();
+        probe.rewind();
+        start();
+    }
+
+    public void close() {
+        clear();
+        build.close();
+        probe.close();
+    }
+
+    /** Drops the hash table and deletes the spilled partitions. */
+    private void clear() {
+        super.close();
+        if (probeIn != null)
+            probeIn.close();
+        probeIn = null;
+        if (current != null)
+            current.delete();
+        current = null;
+        if (partitions != null) {
+            for (Partition p : partitions)
+                p.delete();
+        }
+        partitions = null;
+        table = null;
+        probeBatch = null;
+        probePos = 0;
+        probeTuple = null;
+        match = JoinHashTable.NONE;
+    }
+
+    /** @return an iterator over the tuples of child, left open by close() */
+    private static DbFileIterator input(final DbIterator child) {
+        return new DbFileIterator() {
+            public void open() {
+            }
+
+            public boolean hasNext()
+                    throws DbException, TransactionAbortedException {
+                return child.hasNext();
+            }
+
+            public Tuple next() throws DbException, TransactionAbortedException,
+                    NoSuchElementException {
+                return child.next();
+            }
+
+            public boolean nextBatch(TupleBatch batch)
+                    throws DbException, TransactionAbortedException {
+                return child.nextBatch(batch);
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                child.rewind();
+            }
+
+            public void close() {
+            }
+        };
+    }
+
+    /** A partition of the build tuples and of the probe tuples. */
+    private class Partition {
+        final int level;
+        final SpillFile build;
+        final SpillFile probe;
+        HeapFile buildFile;
+        HeapFile probeFile;
+
+        /** @param level the number of times its tuples were partitioned */
+        Partition(int level) throws DbException {
+            this.level = level;
+            this.build = new SpillFile(HashJoin.this.build.getTupleDesc());
+            SpillFile probe;
+            try {
+                probe = new SpillFile(HashJoin.this.probe.getTupleDesc());
+            } catch (DbException e) {
+                build.delete();
+                throw e;
+            }
+            this.probe = probe;
+        }
+
+        void finish() throws DbException {
+            buildFile = build.finish();
+            probeFile = probe.finish();
+        }
+
+        void delete() {
+            build.delete();
+            probe.delete();
+        }
+    }
+}
@@ -1,6 +1,12 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 /**
@@ -9,12 +15,60 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Pages are read and written with positional I/O on one FileChannel that
+ * the HeapFile keeps open, so concurrent readers neither reopen the file
+ * nor serialize on a shared file position.
+ * <p>
+ * A HeapFile may instead be opened memory-mapped, for read-mostly tables:
+ * the file is mapped read-only in large chunks, and pages are decoded
+ * straight from the mapping, without copying each page into the heap first,
+ * so the OS page cache serves as a second-level buffer pool.  Writes still
+ * go through the channel, and the mapping is extended when a read finds
+ * the file has grown past it.
+ * <p>
+ * Inserts find a page with room through the file's {@link FreeSpaceMap},
+ * kept in a side file named after the data file.  Large loads should use
+ * {@link #bulkLoad} instead, which appends packed pages directly.
+ * <p>
+ * The layout of the pages is up to {@link #newPage} and
+ * {@link #emptyPageData}; subclasses such as {@link SlottedFile} override
+ * them to store their tuples on another kind of {@link TuplePage}.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    private final File file;
+    private final TupleDesc td;
+
+    /** Opened on first use; guarded by this for (re)opening and closing. */
+    private volatile FileChannel channel;
+
+    /** Bytes mapped per chunk, rounded down to whole pages. */
+    private static final int MAP_CHUNK_BYTES = 64 << 20;
+
+    private final FreeSpaceMap freeSpace;
+
+    /** Pages written per sequential write by bulkLoad. */
+    private static final int LOAD_CHUNK_PAGES = 64;
+
+    /** Serializes appends: bulk loads and new pages for inserts. */
+    private final Object appendLock = new Object();
+    /** While a bulk load is in progress, its first page; else -1. */
+    private volatile int loadingFrom = -1;
+    /**
+     * The length of the file in bytes, kept up to date by the writes
+     * through this HeapFile so that numPages() needs no stat of the file;
+     * -1 until it is first needed.  Only grown, or set, under this.
+     */
+    private volatile long length = -1;
+
+    private final boolean mapped;
+    /** Replaced, never modified, under this; null until the first read. */
+    private volatile Mapping mapping;
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -23,7 +77,32 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
-        // some code goes here
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally
+     * reading its pages through a memory mapping.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mapped
+     *            true to read pages from a read-only memory mapping of f.
+     */
+    public HeapFile(File f, TupleDesc td, boolean mapped) {
+        this.file = f;
+        this.td = td;
+        this.mapped = mapped;
+        this.freeSpace = new FreeSpaceMap(f);
+    }
+
+    /**
+     * Returns the side file in which a HeapFile stored in f keeps its free
+     * space map; it is created on the first page write.
+     */
+    public static File freeSpaceMapFile(File f) {
+        return new File(f.getPath() + FreeSpaceMap.SUFFIX);
     }
 
     /**
@@ -32,8 +111,7 @@ public class HeapFile implements DbFile {
      * @return the File backing this HeapFile on disk.
      */
     public File getFile() {
-        // some code goes here
-        return null;
+        return file;
     }
 
     /**
@@ -46,8 +124,7 @@ public class HeapFile implements DbFile {
      * @return an ID uniquely identifying this HeapFile.
      */
     public int getId() {
-        // some code goes here
-        throw new UnsupportedOperationException("implement this");
+        return file.getAbsoluteFile().hashCode();
     }
 
     /**
@@ -56,50 +133,585 @@ public class HeapFile implements DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc() {
-        // some code goes here
-        throw new UnsupportedOperationException("implement this");
+        return td;
     }
 
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
-        // some code goes here
-        return null;
+        int pageSize = BufferPool.getPageSize();
+        // numPages() hides the pages of a load still running, mapped or not
+        if (pid.getTableId() != getId() || pid.pageNumber() < 0
+                || pid.pageNumber() >= numPages())
+            throw new IllegalArgumentException("page " + pid.pageNumber()
+                    + " is not in this file");
+        try {
+            if (mapped) {
+                ByteBuffer view = mappedPage(pid.pageNumber(), pageSize);
+                if (view != null)
+                    return newPage((HeapPageId) pid, view);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("couldn't read page "
+                    + pid.pageNumber(), e);
+        }
+        byte[] data = new byte[pageSize];
+        long pos = (long) pid.pageNumber() * pageSize;
+        try {
+            for (int attempt = 0; ; attempt++) {
+                FileChannel ch = channel();
+                ByteBuffer buf = ByteBuffer.wrap(data);
+                try {
+                    while (buf.hasRemaining()) {
+                        int n = ch.read(buf, pos + buf.position());
+                        if (n < 0)
+                            throw new EOFException("file ends inside page "
+                                    + pid.pageNumber());
+                    }
+                    break;
+                } catch (ClosedChannelException e) {
+                    // closed under us by an interrupt in another thread
+                    if (e instanceof ClosedByInterruptException || attempt > 0)
+                        throw e;
+                }
+            }
+            return newPage((HeapPageId) pid, ByteBuffer.wrap(data));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("couldn't read page "
+                    + pid.pageNumber(), e);
+        }
+    }
+
+    /**
+     * Creates the page pid of this file from a buffer holding its bytes,
+     * read from disk or a view of the mapping, like
+     * {@link HeapPage#HeapPage(HeapPageId, ByteBuffer)}.
+     */
+    protected TuplePage newPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    /**
+     * Returns the bytes of an empty page of this file; {@link #newPage}
+     * must not modify them, so they may be shared.
+     */
+    protected byte[] emptyPageData() {
+        return HeapPage.createEmptyPageData();
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer data = BufferPool.pageBuffer();
+        page.writePageData(data);
+        data.flip();
+        long pos = (long) page.getId().pageNumber() * pageSize;
+        for (int attempt = 0; ; attempt++) {
+            FileChannel ch = channel();
+            ByteBuffer buf = data.duplicate();
+            try {
+                while (buf.hasRemaining())
+                    ch.write(buf, pos + buf.position());
+                break;
+            } catch (ClosedChannelException e) {
+                if (e instanceof ClosedByInterruptException || attempt > 0)
+                    throw e;
+            }
+        }
+        grown(pos + pageSize);
+        if (page instanceof TuplePage) {
+            TuplePage tp = (TuplePage) page;
+            freeSpace.written(tp.getId().pageNumber(), tp.getFreeSpace(), tp.getCapacity());
+        }
+    }
+
+    /**
+     * Releases the channel this file reads and writes through.  The file
+     * stays usable: the next read or write opens a new channel.
+     */
+    public synchronized void close() throws IOException {
+        FileChannel ch = channel;
+        channel = null;
+        // the mapping itself goes away once it is unreachable
+        mapping = null;
+        length = -1;
+        freeSpace.close();
+        if (ch != null)
+            ch.close();
+    }
+
+    /**
+     * Returns a view of page pgNo in the mapping, mapping the chunk that
+     * holds it if necessary.
+     *
+     * @return the view, or null if the page is past the end of the file
+     */
+    private ByteBuffer mappedPage(int pgNo, int pageSize) throws IOException {
+        Mapping m = mapping;
+        if (m == null || !m.covers(pgNo, pageSize))
+            m = remap(pgNo, pageSize);
+        return (m == null) ? null : m.page(pgNo);
+    }
+
+    private synchronized Mapping remap(int pgNo, int pageSize) throws IOException {
+        Mapping m = mapping;
+        if (m != null && m.covers(pgNo, pageSize))
+            return m;
+        FileChannel ch = channel();
+        long numPages = ch.size() / pageSize;
+        if (pgNo >= numPages)
+            return null;
+        m = new Mapping(m, pageSize, (int) numPages);
+        int chunk = pgNo / m.pagesPerChunk;
+        long start = (long) chunk * m.pagesPerChunk * pageSize;
+        long pages = Math.min(m.pagesPerChunk, numPages - (long) chunk * m.pagesPerChunk);
+        m.chunks[chunk] = ch.map(FileChannel.MapMode.READ_ONLY, start, pages * pageSize);
+        mapping = m;
+        return m;
+    }
+
+    /**
+     * The chunks of the file mapped so far.  Chunks are mapped on first use;
+     * the last chunk of the file is mapped again, longer, once the file has
+     * grown.
+     */
+    private static class Mapping {
+        final int pageSize;
+        final int pagesPerChunk;
+        final MappedByteBuffer[] chunks;
+
+        /**
+         * Creates a mapping of a file of numPages pages, keeping the chunks
+         * of prev that are still valid.
+         */
+        Mapping(Mapping prev, int pageSize, int numPages) {
+            this.pageSize = pageSize;
+            this.pagesPerChunk = Math.max(1, MAP_CHUNK_BYTES / pageSize);
+            this.chunks = new MappedByteBuffer[(numPages + pagesPerChunk - 1) / pagesPerChunk];
+            if (prev != null && prev.pageSize == pageSize)
+                System.arraycopy(prev.chunks, 0, chunks, 0,
+                        Math.min(prev.chunks.length, chunks.length));
+        }
+
+        boolean covers(int pgNo, int pageSize) {
+            if (pageSize != this.pageSize)
+                return false;
+            int chunk = pgNo / pagesPerChunk;
+            if (chunk >= chunks.length || chunks[chunk] == null)
+                return false;
+            return (pgNo % pagesPerChunk + 1) * pageSize <= chunks[chunk].capacity();
+        }
+
+        ByteBuffer page(int pgNo) {
+            // a duplicate, since buffer positions are not thread-safe
+            ByteBuffer view = chunks[pgNo / pagesPerChunk].duplicate();
+            int off = (pgNo % pagesPerChunk) * pageSize;
+            view.position(off);
+            view.limit(off + pageSize);
+            return view.slice();
+        }
+    }
+
+    /**
+     * Returns the open channel, reopening it if needed: an interrupt during
+     * I/O closes a FileChannel for every thread using it, so the other
+     * threads retry once on a fresh channel.
+     */
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch != null && ch.isOpen())
+            return ch;
+        synchronized (this) {
+            ch = channel;
+            if (ch == null || !ch.isOpen()) {
+                ch = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                channel = ch;
+            }
+            return ch;
+        }
     }
 
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
-        // some code goes here
-        return 0;
+        int n = (int) (length() / BufferPool.getPageSize());
+        int hidden = loadingFrom;
+        return (hidden >= 0 && hidden < n) ? hidden : n;
+    }
+
+    /** @return the length of the file, reading it from disk the first time */
+    private long length() {
+        long n = length;
+        if (n >= 0)
+            return n;
+        synchronized (this) {
+            if (length < 0)
+                length = file.length();
+            return length;
+        }
+    }
+
+    /** Notes that the file is now at least end bytes long. */
+    private void grown(long end) {
+        if (end <= length)
+            return;
+        synchronized (this) {
+            if (end > length())
+                length = end;
+        }
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        return null;
-        // not necessary for lab1|lab2
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tuple does not match the table's TupleDesc");
+        while (true) {
+            int pgNo = freeSpace.pageWithRoom(numPages());
+            if (pgNo < 0) {
+                appendEmptyPage();
+                continue;
+            }
+            TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(getId(), pgNo), Permissions.READ_WRITE);
+            if (!page.hasRoomFor(t)) {
+                if (page.getFreeSpace() == page.getCapacity())
+                    throw new DbException("tuple does not fit on an empty page");
+                freeSpace.update(pgNo, false);
+                continue;
+            }
+            page.insertTuple(t);
+            freeSpace.update(pgNo, page.getFreeSpace() > 0);
+            ArrayList<Page> dirtied = new ArrayList<Page>();
+            dirtied.add(page);
+            return dirtied;
+        }
+    }
+
+    /** Adds an empty page, unless another inserter just added one. */
+    private void appendEmptyPage() throws IOException {
+        synchronized (appendLock) {
+            int numPages = numPages();
+            if (freeSpace.pageWithRoom(numPages) >= 0)
+                return;
+            writePage(newPage(new HeapPageId(getId(), numPages),
+                    ByteBuffer.wrap(emptyPageData())));
+        }
+    }
+
+    /**
+     * Appends tuples to the end of this file, bypassing the BufferPool:
+     * the tuples are packed into full pages, which are written in large
+     * sequential writes and forced to disk.  The new pages only become
+     * visible through {@link #numPages} once all of them are written, and
+     * if the load fails, the file is truncated back to where it started.
+     * <p>
+     * Instead of before and after images of every page, a single EXTENT
+     * record is logged for the load, if tid is not null.  The record only
+     * notes the load: rollback and recovery do not undo it, so the loaded
+     * pages stay in the file if tid aborts.
+     *
+     * @param tid the transaction loading the tuples, or null to not log
+     * @param tuples the tuples to load; each is given its RecordId
+     * @return the number of tuples loaded
+     * @throws DbException if a tuple does not match this file's TupleDesc
+     */
+    public int bulkLoad(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException {
+        int pageSize = BufferPool.getPageSize();
+        synchronized (appendLock) {
+            int first = numPages();
+            if (tid != null)
+                Database.getLogFile().logExtent(tid, getId(), first);
+            loadingFrom = first;
+            try {
+                ByteBuffer chunk = ByteBuffer.allocateDirect(LOAD_CHUNK_PAGES * pageSize);
+                // never written to by the pages, so it can be shared
+                ByteBuffer empty = ByteBuffer.wrap(emptyPageData());
+                int[] free = new int[LOAD_CHUNK_PAGES];
+                int chunkStart = first;
+                int chunkPages = 0;
+                int count = 0;
+                TuplePage page = null;
+                int capacity = 0;
+                while (tuples.hasNext()) {
+                    Tuple t = tuples.next();
+                    if (page != null && !page.hasRoomFor(t)) {
+                        page.writePageData(chunk);
+                        free[chunkPages++] = page.getFreeSpace();
+                        page = null;
+                        if (chunkPages == LOAD_CHUNK_PAGES) {
+                            writeChunk(chunk, chunkStart, free, chunkPages, capacity);
+                            chunkStart += chunkPages;
+                            chunkPages = 0;
+                        }
+                    }
+                    if (page == null) {
+                        page = newPage(new HeapPageId(getId(),
+                                chunkStart + chunkPages), empty.duplicate());
+                        capacity = page.getCapacity();
+                    }
+                    page.insertTuple(t);
+                    count++;
+                }
+                if (page != null) {
+                    page.writePageData(chunk);
+                    free[chunkPages++] = page.getFreeSpace();
+                }
+                if (chunkPages > 0)
+                    writeChunk(chunk, chunkStart, free, chunkPages, capacity);
+                channel().force(false);
+                return count;
+            } catch (Throwable e) {
+                // no mapping may outlive the pages it covers
+                mapping = null;
+                try {
+                    channel().truncate((long) first * pageSize);
+                } catch (IOException truncateFailure) {
+                    e.addSuppressed(truncateFailure);
+                }
+                synchronized (this) {
+                    // read it again: the truncate may not have happened
+                    length = -1;
+                }
+                throw e;
+            } finally {
+                loadingFrom = -1;
+            }
+        }
+    }
+
+    /**
+     * Writes the first n pages serialized into chunk, starting at page
+     * pgNo, and clears chunk.
+     */
+    private void writeChunk(ByteBuffer chunk, int pgNo, int[] free, int n, int capacity)
+            throws IOException {
+        chunk.flip();
+        long pos = (long) pgNo * BufferPool.getPageSize();
+        FileChannel ch = channel();
+        while (chunk.hasRemaining())
+            ch.write(chunk, pos + chunk.position());
+        grown(pos + chunk.position());
+        chunk.clear();
+        freeSpace.written(pgNo, Arrays.copyOf(free, n), capacity);
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
-        // some code goes here
-        return null;
-        // not necessary for lab1|lab2
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId())
+            throw new DbException("tuple is not in this table");
+        PageId pid = rid.getPageId();
+        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pid,
+                Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        try {
+            freeSpace.update(pid.pageNumber(), true);
+        } catch (IOException e) {
+            // only the hint is lost; the page is found again when the map
+            // is next read from disk
+        }
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        dirtied.add(page);
+        return dirtied;
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-        // some code goes here
-        return null;
+        return new HeapFileIterator(tid, false, null, 0, -1);
+    }
+
+    /**
+     * Returns an iterator over all the tuples stored in this file for a
+     * read-only scan, which returns flyweight views of the tuples in the
+     * pages' bytes where it can (see {@link TuplePage#viewIterator}).  A
+     * tuple it returns is only valid until the next call to next(); use
+     * {@link Tuple#copy} to keep one.
+     */
+    public DbFileIterator viewIterator(TransactionId tid) {
+        return new HeapFileIterator(tid, true, null, 0, -1);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored in this file that pass all
+     * of filters, as {@link #viewIterator} if views is true and else as
+     * {@link #iterator}.  The filters are evaluated as the pages are read,
+     * on the bytes of the pages where the page format allows (see
+     * {@link TuplePage#nextBatch}), so that tuples that fail them are not
+     * decoded.
+     *
+     * @param filters predicates on the fields of this file's tuples, or
+     *   null for none
+     */
+    public DbFileIterator iterator(TransactionId tid, boolean views,
+            Predicate[] filters) {
+        return new HeapFileIterator(tid, views,
+                (filters == null || filters.length == 0) ? null : filters.clone(),
+                0, -1);
+    }
+
+    /**
+     * Returns an iterator over the tuples on pages fromPage (inclusive) to
+     * toPage (exclusive) of this file that pass all of filters, as
+     * {@link #iterator(TransactionId, boolean, Predicate[])} returns them
+     * without views.  Parallel scans read a file as such page ranges.
+     *
+     * @param filters predicates on the fields of this file's tuples, or
+     *   null for none
+     */
+    public DbFileIterator iterator(TransactionId tid, int fromPage, int toPage,
+            Predicate[] filters) {
+        if (fromPage < 0 || toPage < fromPage)
+            throw new IllegalArgumentException("bad page range " + fromPage
+                    + " to " + toPage);
+        return new HeapFileIterator(tid, false,
+                (filters == null || filters.length == 0) ? null : filters.clone(),
+                fromPage, toPage);
+    }
+
+    /** Tuples a HeapFileIterator decodes at a time for next(). */
+    private static final int ITERATOR_BATCH = 256;
+
+    /**
+     * Iterates over the tuples of this file page by page through the
+     * BufferPool, passing the scan strategy the pool chooses for a file of
+     * this size: pages are read ahead of the iterator, and a scan over a
+     * file larger than the BufferPool reads through a bulk-read ring so that
+     * it does not flush the pool.
+     * <p>
+     * Tuples are taken from the pages a batch at a time: nextBatch() fills
+     * the caller's batch across pages, and next() returns tuples from a
+     * batch of its own, filled from one page at a time so that pages are
+     * only fetched once the iterator reaches them.
+     */
+    private class HeapFileIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final boolean views;
+        private final Predicate[] filters;
+        /** The pages to read; toPage is -1 to read to the end of the file. */
+        private final int fromPage;
+        private final int toPage;
+        private BufferPool.AccessStrategy strategy;
+        /** The page being read, or null between pages, and its next slot. */
+        private TuplePage page;
+        private int slot;
+        private int nextPgNo;
+        /** Tuples for next(); those before aheadPos have been returned. */
+        private final TupleBatch ahead = new TupleBatch(ITERATOR_BATCH);
+        private int aheadPos;
+        private boolean open = false;
+
+        HeapFileIterator(TransactionId tid, boolean views, Predicate[] filters,
+                int fromPage, int toPage) {
+            this.tid = tid;
+            this.views = views;
+            this.filters = filters;
+            this.fromPage = fromPage;
+            this.toPage = toPage;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            strategy = Database.getBufferPool().scanStrategy(Math.max(0, endPage() - fromPage));
+            nextPgNo = fromPage;
+            page = null;
+            ahead.clear();
+            aheadPos = 0;
+            open = true;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (aheadPos == ahead.size()) {
+                ahead.clear();
+                aheadPos = 0;
+                fill(ahead, true);
+                if (ahead.size() == 0)
+                    return null;
+            }
+            return ahead.get(aheadPos++);
+        }
+
+        protected void readBatch(TupleBatch batch) throws DbException,
+                TransactionAbortedException {
+            while (aheadPos < ahead.size() && !batch.isFull())
+                batch.add(ahead.get(aheadPos++));
+            fill(batch, false);
+        }
+
+        protected void readColumns(ColumnBatch batch) throws DbException,
+                TransactionAbortedException {
+            if (!batch.getTupleDesc().equals(td))
+                throw new DbException("batch does not match the file's schema");
+            while (aheadPos < ahead.size() && !batch.isFull())
+                batch.add(ahead.get(aheadPos++));
+            if (!open)
+                return;
+            while (!batch.isFull() && nextPage()) {
+                slot = page.nextColumns(slot, batch, filters);
+                if (slot < 0)
+                    page = null;
+            }
+        }
+
+        /**
+         * Moves on to the next page if the last one has been read.
+         * @return false if the file has no more pages
+         */
+        private boolean nextPage() throws DbException,
+                TransactionAbortedException {
+            if (page != null)
+                return true;
+            if (nextPgNo >= endPage())
+                return false;
+            HeapPageId pid = new HeapPageId(getId(), nextPgNo++);
+            page = (TuplePage) Database.getBufferPool().getPage(
+                    tid, pid, Permissions.READ_ONLY, strategy);
+            slot = 0;
+            return true;
+        }
+
+        /**
+         * Adds tuples from the pages to batch until it is full, the file
+         * ends, or, if onePage, a page ends after tuples were added.
+         */
+        private void fill(TupleBatch batch, boolean onePage)
+                throws DbException, TransactionAbortedException {
+            if (!open)
+                return;
+            while (!batch.isFull()) {
+                if (!nextPage())
+                    return;
+                slot = page.nextBatch(slot, batch, views, filters);
+                if (slot < 0) {
+                    page = null;
+                    if (onePage && batch.size() > 0)
+                        return;
+                }
+            }
+        }
+
+        /** @return the page after the last page to read */
+        private int endPage() {
+            return (toPage < 0) ? numPages() : Math.min(toPage, numPages());
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            page = null;
+            ahead.clear();
+            aheadPos = 0;
+            if (strategy != null)
+                strategy.close();
+            strategy = null;
+            open = false;
+        }
     }
 
 }
@@ -1,7 +1,16 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -9,6 +18,9 @@ import java.util.ArrayList;
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
  * data file.
+ * <p>
+ * Large text files can be converted with {@link #convertParallel}, which
+ * parses the input on several threads.
  */
 
 public class HeapFileEncoder {
@@ -68,15 +80,21 @@ public class HeapFileEncoder {
 
    /** Convert the specified input text file into a binary
     * page file. <br>
-    * Assume format of the input file is (note that only integer fields are
-    * supported):<br>
-    * int,...,int\n<br>
-    * int,...,int\n<br>
+    * Assume format of the input file is:<br>
+    * field,...,field\n<br>
+    * field,...,field\n<br>
     * ...<br>
-    * where each row represents a tuple.<br>
+    * where each row represents a tuple, and each field is an integer or a
+    * string according to typeAr.  Blank lines are skipped, and fields are
+    * trimmed of surrounding whitespace.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
     * HeapFile.
+    * <p>
+    * The input is parsed byte by byte straight from a mapping of the file:
+    * integers are computed from their digits, and string bytes are copied
+    * into the page, with no String per field.  Input bytes are read as
+    * ISO-8859-1, so string fields keep the bytes of the input.
     *
     * @see HeapPage
     * @see HeapFile
@@ -86,141 +104,354 @@ public class HeapFileEncoder {
     * @param numFields the number of fields in each input line/output tuple
     * @throws IOException if the input/output file can't be opened or a
     *   malformed input line is encountered
+    * @throws IllegalArgumentException if typeAr has a type other than
+    *   INT_TYPE and STRING_TYPE
     */
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      encode(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+              0, PARALLEL_CHUNK_BYTES);
+  }
+
+  /** Bytes of input parsed per task by convertParallel. */
+  static final int PARALLEL_CHUNK_BYTES = 8 << 20;
+
+  /**
+   * Converts the specified input text file into a binary page file like
+   * {@link #convert(File, File, int, int, Type[], char)}, parsing the
+   * input on nThreads threads.  The input is split into chunks that end
+   * at line boundaries; each chunk is parsed and encoded into records by
+   * a worker, and the calling thread packs the records into pages in
+   * input order, so the output is the same as the sequential conversion.
+   *
+   * @param nThreads the number of parsing threads
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   * @throws IllegalArgumentException if typeAr has a type other than
+   *   INT_TYPE and STRING_TYPE
+   */
+  public static void convertParallel(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, int nThreads)
+      throws IOException {
+      encode(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+              nThreads, PARALLEL_CHUNK_BYTES);
+  }
+
+  /**
+   * @param chunkBytes the approximate number of input bytes per chunk
+   */
+  static void convertParallel(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, int nThreads,
+                 int chunkBytes)
+      throws IOException {
+      encode(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+              nThreads, chunkBytes);
+  }
+
+  /**
+   * @param nThreads the number of parsing threads, or 0 to parse on the
+   *   calling thread
+   * @param chunkBytes the approximate number of input bytes per chunk
+   */
+  static void encode(File inFile, File outFile, int npagebytes,
+                 final int numFields, final Type[] typeAr, final char fieldSeparator,
+                 int nThreads, int chunkBytes)
+      throws IOException {
+      int recbytes = 0;
+      for (int i = 0; i < numFields; i++) {
+          // encodeLine writes only these; anything else would misalign records
+          if (typeAr[i] != Type.INT_TYPE && typeAr[i] != Type.STRING_TYPE)
+              throw new IllegalArgumentException("can't encode field " + i
+                      + " of type " + typeAr[i]);
+          recbytes += typeAr[i].getLen();
+      }
+      final int nrecbytes = recbytes;
+      int nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+      int nheaderbytes = (nrecords + 7) / 8;
+
+      ExecutorService workers = (nThreads > 0) ? Executors.newFixedThreadPool(nThreads) : null;
+      FileInputStream is = new FileInputStream(inFile);
+      FileOutputStream os = new FileOutputStream(outFile);
+      try {
+          final FileChannel in = is.getChannel();
+          FileChannel out = os.getChannel();
+          long size = in.size();
+          // chunks in flight, in input order; bounded to limit memory
+          ArrayDeque<Future<ByteBuffer>> pending = new ArrayDeque<Future<ByteBuffer>>();
+          long next = 0;
+
+          ByteBuffer pages = ByteBuffer.allocateDirect(npagebytes * 64);
+          ByteBuffer page = ByteBuffer.allocate(npagebytes);
+          page.position(nheaderbytes);
+          int recordcount = 0;
+          int npages = 0;
+          while (next < size || !pending.isEmpty()) {
+              ByteBuffer records;
+              if (workers == null) {
+                  long end = lineEnd(in, Math.min(size, next + chunkBytes), size);
+                  records = encodeChunk(in, next, end, numFields, typeAr,
+                          fieldSeparator, nrecbytes);
+                  next = end;
+              } else {
+                  while (next < size && pending.size() < 2 * nThreads) {
+                      final long start = next;
+                      final long end = lineEnd(in, Math.min(size, start + chunkBytes), size);
+                      pending.add(workers.submit(new Callable<ByteBuffer>() {
+                          public ByteBuffer call() throws IOException {
+                              return encodeChunk(in, start, end, numFields, typeAr,
+                                      fieldSeparator, nrecbytes);
+                          }
+                      }));
+                      next = end;
+                  }
+                  records = await(pending.poll());
+              }
+
+              while (records.hasRemaining()) {
+                  // as many records as fit on the page, in one put
+                  int n = Math.min(records.remaining() / nrecbytes, nrecords - recordcount);
+                  ByteBuffer run = records.duplicate();
+                  run.limit(run.position() + n * nrecbytes);
+                  page.put(run);
+                  records.position(run.limit());
+                  recordcount += n;
+                  if (recordcount == nrecords) {
+                      finishPage(page, recordcount, nheaderbytes, pages, out);
+                      recordcount = 0;
+                      npages++;
+                  }
+              }
+          }
+          // if this file is empty, do flush an empty page to disk
+          if (recordcount > 0 || npages == 0)
+              finishPage(page, recordcount, nheaderbytes, pages, out);
+          flushPages(pages, out);
+      } finally {
+          if (workers != null)
+              workers.shutdownNow();
+          is.close();
+          os.close();
+      }
+  }
+
+  /** @return the offset just past the first newline at or after pos, or size */
+  private static long lineEnd(FileChannel in, long pos, long size) throws IOException {
+      ByteBuffer buf = ByteBuffer.allocate(4096);
+      while (pos < size) {
+          buf.clear();
+          int n = in.read(buf, pos);
+          if (n < 0)
+              break;
+          for (int i = 0; i < n; i++) {
+              if (buf.get(i) == '\n')
+                  return pos + i + 1;
+          }
+          pos += n;
+      }
+      return size;
+  }
+
+  /**
+   * Parses the lines in [start, end) of the input, mapped rather than
+   * copied, into encoded records.
+   *
+   * @return a buffer holding the records between its position and limit
+   */
+  private static ByteBuffer encodeChunk(FileChannel in, long start, long end,
+                 int numFields, Type[] typeAr, char fieldSeparator, int nrecbytes)
+      throws IOException {
+      ByteBuffer text = in.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+      // a second view of text, moved over the string fields to copy them
+      ByteBuffer view = text.duplicate();
+      int len = text.limit();
+
+      // grown as needed; integer records are usually smaller than their text
+      ByteBuffer records = ByteBuffer.allocate(len + nrecbytes);
+      int lineStart = 0;
+      while (lineStart < len) {
+          int lineEnd = lineStart;
+          while (lineEnd < len && text.get(lineEnd) != '\n')
+              lineEnd++;
+          int stop = lineEnd;
+          if (stop > lineStart && text.get(stop - 1) == '\r')
+              stop--;
+          if (stop > lineStart) {
+              if (records.remaining() < nrecbytes) {
+                  ByteBuffer bigger = ByteBuffer.allocate(records.capacity() * 2);
+                  records.flip();
+                  bigger.put(records);
+                  records = bigger;
+              }
+              encodeLine(text, view, lineStart, stop, numFields, typeAr,
+                      fieldSeparator, records);
+          }
+          lineStart = lineEnd + 1;
+      }
+      records.flip();
+      return records;
+  }
+
+  private static final byte[] ZEROS = new byte[Type.STRING_LEN];
+
+  /** Encodes the line in text[from, to) as one record into out. */
+  private static void encodeLine(ByteBuffer text, ByteBuffer view, int from, int to,
+                 int numFields, Type[] typeAr, char fieldSeparator, ByteBuffer out)
+      throws IOException {
+      int fieldNo = 0;
+      int fieldStart = from;
+      for (int i = from; i <= to; i++) {
+          if (i < to && text.get(i) != fieldSeparator)
+              continue;
+          if (fieldNo == numFields)
+              throw malformed("more than " + numFields + " fields", text, from, to);
+
+          // trim, as String.trim does
+          int a = fieldStart;
+          int b = i;
+          while (a < b && (text.get(a) & 0xff) <= ' ')
+              a++;
+          while (b > a && (text.get(b - 1) & 0xff) <= ' ')
+              b--;
+
+          if (typeAr[fieldNo] == Type.INT_TYPE) {
+              out.putInt(parseInt(text, a, b, from, to));
+          } else if (typeAr[fieldNo] == Type.STRING_TYPE) {
+              int n = Math.min(b - a, Type.STRING_LEN);
+              out.putInt(n);
+              view.clear();
+              view.position(a);
+              view.limit(a + n);
+              out.put(view);
+              out.put(ZEROS, 0, Type.STRING_LEN - n);
+          }
+          fieldNo++;
+          fieldStart = i + 1;
+      }
+      if (fieldNo < numFields)
+          throw malformed("fewer than " + numFields + " fields", text, from, to);
+  }
+
+  /**
+   * Parses the decimal integer in text[a, b), accepting what
+   * Integer.parseInt accepts.
+   */
+  private static int parseInt(ByteBuffer text, int a, int b, int from, int to)
+      throws IOException {
+      boolean negative = false;
+      if (a < b && (text.get(a) == '-' || text.get(a) == '+')) {
+          negative = text.get(a) == '-';
+          a++;
+      }
+      if (a == b)
+          throw malformed("bad integer", text, from, to);
+      // accumulate negatively, so that Integer.MIN_VALUE fits
+      long limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+      long v = 0;
+      for (int i = a; i < b; i++) {
+          int d = text.get(i) - '0';
+          if (d < 0 || d > 9)
+              throw malformed("bad integer", text, from, to);
+          v = v * 10 - d;
+          if (v < limit)
+              throw malformed("integer out of range", text, from, to);
+      }
+      return (int) (negative ? v : -v);
+  }
+
+  private static IOException malformed(String why, ByteBuffer text, int from, int to) {
+      byte[] line = new byte[to - from];
+      for (int i = 0; i < line.length; i++)
+          line[i] = text.get(from + i);
+      return new IOException("malformed input line, " + why + ": "
+              + new String(line, StandardCharsets.ISO_8859_1));
+  }
+
+  private static ByteBuffer await(Future<ByteBuffer> f) throws IOException {
+      try {
+          return f.get();
+      } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("conversion interrupted");
+      } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException)
+              throw (IOException) e.getCause();
+          throw new RuntimeException(e.getCause());
+      }
+  }
+
+  /**
+   * Sets the header bits of the first recordcount slots, zero pads the page,
+   * and moves it to the output buffer; page is cleared for the next page.
+   */
+  private static void finishPage(ByteBuffer page, int recordcount, int nheaderbytes,
+                 ByteBuffer pages, FileChannel out) throws IOException {
+      for (int i = 0; i < nheaderbytes; i++) {
+          int bits = Math.max(0, Math.min(8, recordcount - 8 * i));
+          page.put(i, (byte) ((1 << bits) - 1));
+      }
+      while (page.remaining() >= ZEROS.length)
+          page.put(ZEROS);
+      page.put(ZEROS, 0, page.remaining());
+      page.flip();
+      if (pages.remaining() < page.remaining())
+          flushPages(pages, out);
+      pages.put(page);
+      page.clear();
+      page.position(nheaderbytes);
+  }
+
+  private static void flushPages(ByteBuffer pages, FileChannel out) throws IOException {
+      pages.flip();
+      while (pages.hasRemaining())
+          out.write(pages);
+      pages.clear();
+  }
+
+  /**
+   * Measures the throughput of the encoder on a text file: converts it
+   * with nThreads parsing threads (0 for the calling thread) into a
+   * temporary file and prints MB/s and rows/s to out.
+   *
+   * @return the number of input bytes converted per second
+   */
+  public static double benchmark(File inFile, int numFields, Type[] typeAr,
+                 char fieldSeparator, int nThreads, PrintStream out)
+      throws IOException {
+      File outFile = File.createTempFile("benchmark", ".dat");
+      outFile.deleteOnExit();
+      try {
+          long begin = System.nanoTime();
+          encode(inFile, outFile, BufferPool.getPageSize(), numFields, typeAr,
+                  fieldSeparator, nThreads, PARALLEL_CHUNK_BYTES);
+          double secs = (System.nanoTime() - begin) / 1e9;
 
-      int nrecbytes = 0;
-      for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
+          int recbytes = 0;
+          for (int i = 0; i < numFields; i++)
+              recbytes += typeAr[i].getLen();
+          int pageSize = BufferPool.getPageSize();
+          int nrecords = (pageSize * 8) / (recbytes * 8 + 1);
+          long rows = 0;
+          // full pages hold nrecords rows; count the last page's header bits
+          long npages = outFile.length() / pageSize;
+          if (npages > 0) {
+              rows = (npages - 1) * nrecords;
+              RandomAccessFile raf = new RandomAccessFile(outFile, "r");
+              try {
+                  raf.seek((npages - 1) * pageSize);
+                  for (int i = 0; i < (nrecords + 7) / 8; i++)
+                      rows += Integer.bitCount(raf.readUnsignedByte());
+              } finally {
+                  raf.close();
+              }
+          }
+          double bytesPerSec = inFile.length() / secs;
+          out.printf("%s: %d bytes, %d rows in %.3f s (%d threads): %.1f MB/s, %.0f rows/s%n",
+                  inFile.getName(), inFile.length(), rows, secs, nThreads,
+                  bytesPerSec / (1 << 20), rows / secs);
+          return bytesPerSec;
+      } finally {
+          outFile.delete();
       }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
-      
-    //  per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-        nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char buf[] = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-        
-        // Ignore Windows/Notepad special line endings
-        if (c == '\r')
-            continue;
-
-        if (c == '\n') {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == fieldSeparator || c == '\n' || c == '\r') {
-            String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
-            }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
-        }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
-        }
-    }
-    br.close();
-    os.close();
   }
 }
@@ -2,25 +2,54 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page keeps the bytes it was read from and decodes a tuple only when it
+ * is first asked for, through {@link #iterator} or {@link #getField}; tuples
+ * that a scan never reaches are never allocated.  Decoded tuples are kept,
+ * so every caller sees the same Tuple object for a slot.  They are
+ * {@link RowTuple}s, which copy the tuple's bytes rather than decode a
+ * Field per value.
  *
  * @see HeapFile
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
+    /**
+     * The slot header as a bitmap: slot i is bit i % 64 of word i / 64, which
+     * is bit i % 8 of header byte i / 8 on disk.  Bits past numSlots are 0.
+     */
+    final long slotBits[];
+    final int headerSize;
+    /** Decoded tuples; null for empty slots and slots not decoded yet. */
+    final AtomicReferenceArray<Tuple> tuples;
     final int numSlots;
 
+    /** The bytes the page was read from; read with absolute gets only. */
+    private final ByteBuffer data;
+
+    /*
+     * The before image is captured on the first write after it was set:
+     * until then it is the data the page was read from (or oldData, once
+     * the page has been written), and setBeforeImage only marks the current
+     * contents as the image to capture.  All three are guarded by
+     * oldDataLock.
+     */
     byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    private boolean beforeImageIsCurrent = false;
+    private boolean changed = false;
+    private final Object oldDataLock = new Object();
+
+    private volatile TransactionId dirtier;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -39,36 +68,41 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page's bytes, such as a
+     * view of a memory-mapped file.  The page starts at the buffer's
+     * position.  The page keeps the buffer to decode tuples from, so its
+     * contents must not change while the page is in use; the buffer's
+     * position and limit may.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
-
-        setBeforeImage();
+        if (data.remaining() < BufferPool.getPageSize())
+            throw new EOFException("page " + id.pageNumber() + " is truncated");
+        this.data = data.slice();
+
+        // read the header slots of this page; tuples are decoded on demand
+        headerSize = getHeaderSize();
+        slotBits = new long[(numSlots + 63) / 64];
+        for (int i=0; i<headerSize; i++)
+            slotBits[i / 8] |= (this.data.get(i) & 0xffL) << (8 * (i % 8));
+        if (numSlots % 64 != 0)
+            slotBits[slotBits.length - 1] &= (1L << numSlots) - 1;
+        tuples = new AtomicReferenceArray<Tuple>(numSlots);
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
-        // some code goes here
-        return 0;
-
+        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
     }
 
     /**
@@ -76,22 +110,22 @@ public class HeapPage implements Page {
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
     private int getHeaderSize() {        
-        
-        // some code goes here
-        return 0;
-                 
+        return (numSlots + 7) / 8;
     }
     
     /** Return a view of this page before it was modified
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
             synchronized(oldDataLock)
             {
-                oldDataRef = oldData;
+                if (beforeImageIsCurrent)
+                    return new HeapPage(pid, getPageData());
+                if (oldData != null)
+                    return new HeapPage(pid, oldData);
             }
-            return new HeapPage(pid,oldDataRef);
+            // never written: the data the page was read from is the image
+            return new HeapPage(pid, data.duplicate());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -103,7 +137,30 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+            // the contents are captured before the next write, if any
+            if (changed) {
+                beforeImageIsCurrent = true;
+                changed = false;
+            }
+        }
+    }
+
+    /**
+     * Captures the before image, if it has not been captured yet, ahead of
+     * a change to this page.
+     */
+    private void beforeWrite() {
+        synchronized(oldDataLock)
+        {
+            if (beforeImageIsCurrent) {
+                oldData = getPageData();
+                beforeImageIsCurrent = false;
+            } else if (oldData == null && !data.hasArray()) {
+                // a mapped buffer changes under us once the page is flushed
+                oldData = new byte[data.capacity()];
+                data.duplicate().get(oldData);
+            }
+            changed = true;
         }
     }
 
@@ -111,42 +168,51 @@ public class HeapPage implements Page {
      * @return the PageId associated with this page.
      */
     public HeapPageId getId() {
-    // some code goes here
-    throw new UnsupportedOperationException("implement this");
+        return pid;
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in a used slot, decoding it on first use.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    private Tuple tuple(int slotId) throws NoSuchElementException {
+        Tuple t = tuples.get(slotId);
+        if (t != null)
+            return t;
+
+        // copy the tuple's bytes; fields are decoded as they are read
+        t = new RowTuple(td, data, slotOffset(slotId));
+        t.setRecordId(new RecordId(pid, slotId));
+
+        // another reader may have decoded the slot meanwhile; keep one copy
+        if (!tuples.compareAndSet(slotId, null, t))
+            t = tuples.get(slotId);
+        return t;
+    }
+
+    /** @return the offset of the tuple in slotId within the page data */
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * td.getSize();
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /**
+     * Returns one field of the tuple in a slot, without decoding the rest of
+     * the tuple if it has not been decoded yet.
+     *
+     * @param slotId the slot of the tuple
+     * @param i the index of the field
+     * @throws NoSuchElementException if the slot is empty
+     */
+    public Field getField(int slotId, int i) throws NoSuchElementException {
+        if (!isSlotUsed(slotId))
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        Tuple t = tuples.get(slotId);
+        if (t != null)
+            return t.getField(i);
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
+            return td.getFieldType(i).parse(data, slotOffset(slotId) + td.getOffset(i));
         } catch (java.text.ParseException e) {
-            e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
-
-        return t;
     }
 
     /**
@@ -161,64 +227,72 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+        byte[] bytes = new byte[BufferPool.getPageSize()];
+        writePageData(ByteBuffer.wrap(bytes));
+        return bytes;
+    }
 
-                }
+    /**
+     * Writes the bytes {@link #getPageData} returns into out with bulk
+     * puts.  Runs of slots that were never decoded are copied from the data
+     * the page was read from in one put.
+     */
+    public void writePageData(ByteBuffer out) {
+        int tupleSize = td.getSize();
+        for (int i=0; i<headerSize; i++)
+            out.put((byte) (slotBits[i / 8] >>> (8 * (i % 8))));
+
+        int slot = 0;
+        while (slot < numSlots) {
+            // empty slots
+            if (!isSlotUsed(slot)) {
+                int end = nextUsedSlot(slot);
+                putZeros(out, (end - slot) * tupleSize);
+                slot = end;
                 continue;
             }
 
             // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
+            Tuple t = tuples.get(slot);
+            if (t instanceof RowTuple) {
+                ((RowTuple) t).serialize(out);
+                slot++;
+                continue;
+            }
+            if (t != null) {
+                for (int j=0; j<td.numFields(); j++) {
+                    // VARCHAR values are padded to their maximum length here
+                    int end = out.position() + td.getFieldType(j).getLen();
+                    t.getField(j).serialize(out);
+                    putZeros(out, end - out.position());
                 }
+                slot++;
+                continue;
             }
+
+            // slots that were never decoded: copy their bytes
+            int end = slot + 1;
+            while (end < numSlots && isSlotUsed(end) && tuples.get(end) == null)
+                end++;
+            ByteBuffer raw = data.duplicate();
+            raw.position(slotOffset(slot));
+            raw.limit(slotOffset(end));
+            out.put(raw);
+            slot = end;
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        putZeros(out, BufferPool.getPageSize() - slotOffset(numSlots));
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    private static final byte[] ZEROS = new byte[512];
 
-        return baos.toByteArray();
+    private static void putZeros(ByteBuffer out, int n) {
+        while (n > 0) {
+            int len = Math.min(n, ZEROS.length);
+            out.put(ZEROS, 0, len);
+            n -= len;
+        }
     }
 
     /**
@@ -243,8 +317,16 @@ public class HeapPage implements Page {
      * @param t The tuple to delete
      */
     public void deleteTuple(Tuple t) throws DbException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on page " + pid.pageNumber());
+        int slot = rid.tupleno();
+        if (!isSlotUsed(slot))
+            throw new DbException("slot " + slot + " is already empty");
+        beforeWrite();
+        markSlotUsed(slot, false);
+        tuples.set(slot, null);
+        t.setRecordId(null);
     }
 
     /**
@@ -255,8 +337,15 @@ public class HeapPage implements Page {
      * @param t The tuple to add.
      */
     public void insertTuple(Tuple t) throws DbException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tuple does not match the page's TupleDesc");
+        int slot = nextFreeSlot(0);
+        if (slot >= numSlots)
+            throw new DbException("page " + pid.pageNumber() + " is full");
+        beforeWrite();
+        markSlotUsed(slot, true);
+        t.setRecordId(new RecordId(pid, slot));
+        tuples.set(slot, t);
     }
 
     /**
@@ -264,41 +353,60 @@ public class HeapPage implements Page {
      * that did the dirtying
      */
     public void markDirty(boolean dirty, TransactionId tid) {
-        // some code goes here
-	// not necessary for lab1|lab2
+        if (dirty)
+            beforeWrite();
+        dirtier = dirty ? tid : null;
     }
 
     /**
      * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
      */
     public TransactionId isDirty() {
-        // some code goes here
-	// Not necessary for lab1
-        return null;      
+        return dirtier;
     }
 
     /**
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        // some code goes here
-        return 0;
+        int used = 0;
+        for (long word : slotBits)
+            used += Long.bitCount(word);
+        return numSlots - used;
+    }
+
+    /** @return true if the page has an empty slot */
+    public boolean hasRoomFor(Tuple t) {
+        return nextFreeSlot(0) < numSlots;
+    }
+
+    /** Returns the number of empty slots on this page. */
+    public int getFreeSpace() {
+        return getNumEmptySlots();
+    }
+
+    /** Returns the number of slots on this page. */
+    public int getCapacity() {
+        return numSlots;
     }
 
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
-        // some code goes here
-        return false;
+        if (i < 0 || i >= numSlots)
+            return false;
+        return (slotBits[i >>> 6] & (1L << i)) != 0;
     }
 
     /**
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
-        // some code goes here
-        // not necessary for lab1|lab2
+        if (value)
+            slotBits[i >>> 6] |= 1L << i;
+        else
+            slotBits[i >>> 6] &= ~(1L << i);
     }
 
     /**
@@ -306,8 +414,130 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        // some code goes here
-        return null;
+        return new Iterator<Tuple>() {
+            private int slot = nextUsedSlot(0);
+
+            public boolean hasNext() {
+                return slot < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = tuple(slot);
+                slot = nextUsedSlot(slot + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that points a single
+     * {@link TupleView} at the bytes of each slot in turn, instead of
+     * decoding a tuple per slot.  Slots whose tuples have been decoded, such
+     * as those inserted since the page was read, return the decoded tuple.
+     *
+     * @see TuplePage#viewIterator
+     */
+    public Iterator<Tuple> viewIterator() {
+        final TupleView view = new TupleView(td);
+        return new Iterator<Tuple>() {
+            private int slot = nextUsedSlot(0);
+
+            public boolean hasNext() {
+                return slot < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = tuples.get(slot);
+                if (t == null) {
+                    view.moveTo(data, slotOffset(slot), pid, slot);
+                    t = view;
+                }
+                slot = nextUsedSlot(slot + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    // see TuplePage.java for javadocs
+    /**
+     * Filters are evaluated on the bytes of the page with
+     * {@link Predicate#filter(ByteBuffer, int, TupleDesc)}, so tuples that
+     * fail them are never decoded.
+     */
+    public int nextBatch(int slot, TupleBatch batch, boolean views,
+            Predicate[] filters) {
+        slot = nextUsedSlot(slot);
+        while (slot < numSlots && !batch.isFull()) {
+            Tuple t = tuples.get(slot);
+            if (t != null) {
+                if (Predicate.filter(filters, t))
+                    batch.add(t);
+            } else if (!Predicate.filter(filters, data, slotOffset(slot), td)) {
+                // skipped without decoding
+            } else if (views) {
+                batch.addView(td).moveTo(data, slotOffset(slot), pid, slot);
+            } else {
+                batch.add(tuple(slot));
+            }
+            slot = nextUsedSlot(slot + 1);
+        }
+        return (slot < numSlots) ? slot : -1;
+    }
+
+    public int nextColumns(int slot, ColumnBatch batch, Predicate[] filters) {
+        slot = nextUsedSlot(slot);
+        while (slot < numSlots && !batch.isFull()) {
+            Tuple t = tuples.get(slot);
+            if (t != null) {
+                if (Predicate.filter(filters, t))
+                    batch.add(t);
+            } else if (Predicate.filter(filters, data, slotOffset(slot), td)) {
+                batch.add(data, slotOffset(slot));
+            }
+            slot = nextUsedSlot(slot + 1);
+        }
+        return (slot < numSlots) ? slot : -1;
+    }
+
+    /** @return the first used slot at or after from, or numSlots if none */
+    private int nextUsedSlot(int from) {
+        if (from >= numSlots)
+            return numSlots;
+        int w = from >>> 6;
+        long word = slotBits[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == slotBits.length)
+                return numSlots;
+            word = slotBits[w];
+        }
+        return w * 64 + Long.numberOfTrailingZeros(word);
+    }
+
+    /** @return the first empty slot at or after from, or numSlots if none */
+    private int nextFreeSlot(int from) {
+        if (from >= numSlots)
+            return numSlots;
+        int w = from >>> 6;
+        long word = ~slotBits[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == slotBits.length)
+                return numSlots;
+            word = ~slotBits[w];
+        }
+        // bits past numSlots are free in ~word, so clamp
+        return Math.min(numSlots, w * 64 + Long.numberOfTrailingZeros(word));
     }
 
 }
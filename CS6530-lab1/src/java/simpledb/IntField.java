@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single integer.
@@ -40,6 +41,10 @@ public class IntField implements Field {
         dos.writeInt(value);
     }
 
+    public void serialize(ByteBuffer buf) {
+        buf.putInt(value);
+    }
+
     /**
      * Compare the specified field to the value of this Field.
      * Return semantics are as specified by Field.compare
@@ -50,27 +55,34 @@ public class IntField implements Field {
     public boolean compare(Predicate.Op op, Field val) {
 
         IntField iVal = (IntField) val;
+        return compare(op, value, iVal.value);
+    }
 
+    /**
+     * Compares two int values as {@link #compare(Predicate.Op, Field)}
+     * compares IntFields holding them.
+     */
+    static boolean compare(Predicate.Op op, int value, int operand) {
         switch (op) {
         case EQUALS:
-            return value == iVal.value;
+            return value == operand;
         case NOT_EQUALS:
-            return value != iVal.value;
+            return value != operand;
 
         case GREATER_THAN:
-            return value > iVal.value;
+            return value > operand;
 
         case GREATER_THAN_OR_EQ:
-            return value >= iVal.value;
+            return value >= operand;
 
         case LESS_THAN:
-            return value < iVal.value;
+            return value < operand;
 
         case LESS_THAN_OR_EQ:
-            return value <= iVal.value;
+            return value <= operand;
 
     case LIKE:
-        return value == iVal.value;
+        return value == operand;
         }
 
         return false;
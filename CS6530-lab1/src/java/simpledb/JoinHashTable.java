@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The build side of a hash join: tuples keyed on one of their fields, with
+ * the tuples of each key chained together.  Int keys are kept in an
+ * open-addressing table of primitive ints, probed linearly, so that neither
+ * building nor probing allocates per tuple or boxes a key; keys of other
+ * types go in a HashMap.
+ */
+class JoinHashTable {
+
+    /** Chain end, and the head of an empty slot. */
+    static final int NONE = -1;
+
+    private final int field;
+    private final boolean ints;
+
+    private Tuple[] rows = new Tuple[64];
+    /** next[i] is the row after row i with the same key, or NONE. */
+    private int[] next = new int[64];
+    private int size = 0;
+
+    // the int table; its size is a power of two, at most half full
+    private int[] slotKeys;
+    private int[] slotHeads;
+    private int mask;
+    private int keys = 0;
+
+    private final Map<Field, Integer> heads;
+
+    /**
+     * @param type the type of the key field
+     * @param field the index of the key field in the tuples added
+     */
+    JoinHashTable(Type type, int field) {
+        this.field = field;
+        this.ints = (type == Type.INT_TYPE);
+        if (ints) {
+            heads = null;
+            alloc(64);
+        } else {
+            heads = new HashMap<Field, Integer>();
+        }
+    }
+
+    private void alloc(int slots) {
+        slotKeys = new int[slots];
+        slotHeads = new int[slots];
+        Arrays.fill(slotHeads, NONE);
+        mask = slots - 1;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /** @return the slot of key, or the empty slot it would go in */
+    private int slot(int key) {
+        int s = hash(key) & mask;
+        while (slotHeads[s] != NONE && slotKeys[s] != key)
+            s = (s + 1) & mask;
+        return s;
+    }
+
+    /** Adds t, which the table keeps a reference to. */
+    void add(Tuple t) {
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+            next = Arrays.copyOf(next, size * 2);
+        }
+        rows[size] = t;
+        if (ints) {
+            int key = t.getInt(field);
+            int s = slot(key);
+            if (slotHeads[s] == NONE) {
+                slotKeys[s] = key;
+                keys++;
+            }
+            next[size] = slotHeads[s];
+            slotHeads[s] = size;
+            if (keys * 2 > slotKeys.length)
+                grow();
+        } else {
+            Integer head = heads.put(t.getField(field), size);
+            next[size] = (head == null) ? NONE : head;
+        }
+        size++;
+    }
+
+    private void grow() {
+        int[] oldKeys = slotKeys;
+        int[] oldHeads = slotHeads;
+        alloc(oldKeys.length * 2);
+        for (int s = 0; s < oldKeys.length; s++) {
+            if (oldHeads[s] != NONE) {
+                int to = slot(oldKeys[s]);
+                slotKeys[to] = oldKeys[s];
+                slotHeads[to] = oldHeads[s];
+            }
+        }
+    }
+
+    /** @return the number of tuples added */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the first row whose key equals field f of t, or NONE
+     */
+    int first(Tuple t, int f) {
+        if (ints) {
+            int key = t.getInt(f);
+            return slotHeads[slot(key)];
+        }
+        Integer head = heads.get(t.getField(f));
+        return (head == null) ? NONE : head;
+    }
+
+    /** @return the row after row with the same key, or NONE */
+    int next(int row) {
+        return next[row];
+    }
+
+    /** @return the tuple of row */
+    Tuple row(int row) {
+        return rows[row];
+    }
+
+    /** Removes all tuples, keeping the memory allocated for them. */
+    void clear() {
+        Arrays.fill(rows, 0, size, null);
+        size = 0;
+        if (ints) {
+            Arrays.fill(slotHeads, NONE);
+            keys = 0;
+        } else {
+            heads.clear();
+        }
+    }
+}
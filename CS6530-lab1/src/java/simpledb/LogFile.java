@@ -4,6 +4,8 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -51,8 +53,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT and EXTENT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -61,6 +63,12 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li> EXTENT records consist of an integer table id and an integer page
+number: the transaction bulk loaded pages onto the end of that table,
+from that page on, without going through the BufferPool.  The record
+is informational only: rollback() and recover() do not undo it, so a
+transaction that aborts keeps the pages it loaded.
+
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
@@ -82,6 +90,7 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int EXTENT_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -240,9 +249,14 @@ public class LogFile {
         for (int i = 0; i < pageInfo.length; i++) {
             raf.writeInt(pageInfo[i]);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        ByteBuffer pageData = BufferPool.pageBuffer();
+        p.writePageData(pageData);
+        pageData.flip();
+        raf.writeInt(pageData.remaining());
+        // the channel shares raf's file position
+        FileChannel ch = raf.getChannel();
+        while (pageData.hasRemaining())
+            ch.write(pageData);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
@@ -265,7 +279,14 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class)
+                    pageConst = c;
+            }
+            if (pageConst == null)
+                throw new IOException(pageClassName + " has no (PageId, byte[]) constructor");
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,7 +296,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -295,6 +316,29 @@ public class LogFile {
 
     }
 
+    /** Write an EXTENT record for the specified tid and table, and force
+        the log to disk.  Must be logged before any of the pages are
+        written.  The record is not undone by rollback or recovery.
+        @param tid The transaction loading the pages
+        @param tableId The table the pages are appended to
+        @param firstPage The first page appended
+
+        @see simpledb.HeapFile#bulkLoad
+    */
+    public synchronized void logExtent(TransactionId tid, int tableId,
+                                       int firstPage)
+        throws IOException {
+        Debug.log("EXTENT " + tableId + " from " + firstPage);
+        preAppend();
+        raf.writeInt(EXTENT_RECORD);
+        raf.writeLong(tid.getId());
+        raf.writeInt(tableId);
+        raf.writeInt(firstPage);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+        force();
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -416,6 +460,10 @@ public class LogFile {
                     writePageData(logNew, before);
                     writePageData(logNew, after);
                     break;
+                case EXTENT_RECORD:
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeInt(raf.readInt());
+                    break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
                     logNew.writeInt(numXactions);
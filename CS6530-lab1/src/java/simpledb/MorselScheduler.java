@@ -0,0 +1,295 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * MorselScheduler runs {@link Pipeline}s on a work-stealing pool of worker
+ * threads.  A pipeline's file is split into {@link Morsels} of
+ * {@link #MORSEL_PAGES} pages, and each worker runs the pipeline on the
+ * next morsel no worker has claimed until there are none left.  Workers
+ * that draw slow or dense pages thus never leave the others idle, wherever
+ * the pages and threads are.
+ * <p>
+ * All schedulers share one pool, with a worker thread per processor; a
+ * scheduler's parallelism is the most workers that run the morsels of one
+ * of its pipelines at once, so that a query can be kept to a share of the
+ * machine without a pool of its own.  The scheduler runs any number of
+ * pipelines at once.  A sink that blocks,
+ * such as the queue a {@link SeqScan} with several threads gathers tuples
+ * on, should block through {@link ForkJoinPool#managedBlock} so that the
+ * pool can keep its other workers busy.
+ *
+ * @Threadsafe
+ */
+public class MorselScheduler {
+
+    /** Pages of a file in a morsel. */
+    public static final int MORSEL_PAGES = Morsels.PAGES;
+
+    /** Tuples the scan of a morsel passes down its pipeline at a time. */
+    static final int BATCH_TUPLES = 256;
+
+    /** Worker threads of all schedulers; daemons so they never keep the VM alive. */
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread t = ForkJoinPool
+                            .defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    t.setName("simpledb-morsel-" + t.getPoolIndex());
+                    t.setDaemon(true);
+                    return t;
+                }
+            }, null, false);
+
+    private static final MorselScheduler DEFAULT =
+            new MorselScheduler(POOL.getParallelism());
+
+    private final int parallelism;
+
+    /**
+     * Creates a scheduler that runs the morsels of a pipeline on at most
+     * the specified number of the shared workers at once.
+     */
+    public MorselScheduler(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("a scheduler needs a worker");
+        this.parallelism = Math.min(parallelism, POOL.getParallelism());
+    }
+
+    /**
+     * @return the scheduler that uses all the workers, one per processor
+     */
+    public static MorselScheduler getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return the most workers that run the morsels of a pipeline at once
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Starts running pipeline into sink.  sink is called from many worker
+     * threads at once, so it must be thread-safe.
+     *
+     * @return the running job
+     */
+    public Job submit(Pipeline pipeline, TupleSink sink) {
+        return submit(pipeline, sink, null);
+    }
+
+    /**
+     * Starts running pipeline into sink, as {@link #submit(Pipeline,
+     * TupleSink)}, and then runs whenDone on a worker thread, whether the
+     * job succeeded, failed or was cancelled.  The job is done once whenDone
+     * returns.
+     */
+    public Job submit(Pipeline pipeline, TupleSink sink, Runnable whenDone) {
+        Job job = new Job(sink, whenDone);
+        Morsels morsels = new Morsels(0, pipeline.getFile().numPages());
+        List<RecursiveAction> workers = new ArrayList<RecursiveAction>();
+        for (int i = 0; i < Math.min(getParallelism(), morsels.count()); i++)
+            workers.add(new MorselTask(job, pipeline, morsels));
+        start(job, all(workers));
+        return job;
+    }
+
+    /**
+     * Starts draining each of producers into sink on a worker of its own,
+     * for plans that are not a single Pipeline; sink must be thread-safe.
+     * The producers are drained all at once whatever the parallelism, as
+     * they may depend on each other, like the consumers of one Exchange.
+     * Each producer is opened, read a batch at a time with
+     * {@link DbIterator#nextBatch} and closed.  Then runs whenDone, as
+     * {@link #submit(Pipeline, TupleSink, Runnable)} does.
+     *
+     * @return the running job
+     */
+    public Job submit(List<? extends DbIterator> producers, TupleSink sink,
+            Runnable whenDone) {
+        final Job job = new Job(sink, whenDone);
+        final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+        for (final DbIterator it : producers) {
+            tasks.add(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                protected void compute() {
+                    if (!job.stopped())
+                        job.drain(it);
+                }
+            });
+        }
+        start(job, all(tasks));
+        return job;
+    }
+
+    /** @return a task that runs tasks, in parallel, until all are done */
+    private static RecursiveAction all(final List<RecursiveAction> tasks) {
+        return new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        };
+    }
+
+    /** Runs root on the pool, and completes job once it has run. */
+    private void start(final Job job, final RecursiveAction root) {
+        POOL.execute(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            protected void compute() {
+                try {
+                    root.invoke();
+                } finally {
+                    job.complete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs pipeline into sink and waits for it to finish.
+     *
+     * @throws DbException or TransactionAbortedException if a morsel did
+     */
+    public void run(Pipeline pipeline, TupleSink sink)
+            throws DbException, TransactionAbortedException {
+        submit(pipeline, sink).await();
+    }
+
+    /**
+     * A pipeline, or set of producers, being run by a scheduler.
+     */
+    public static class Job {
+        private final TupleSink sink;
+        private final Runnable whenDone;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean cancelled = false;
+        private volatile Throwable error;
+
+        private Job(TupleSink sink, Runnable whenDone) {
+            this.sink = sink;
+            this.whenDone = whenDone;
+        }
+
+        /**
+         * Stops the job from starting more morsels; the morsels already
+         * running run to their end.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /** @return true if the job has finished */
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * Waits for the job to finish.
+         *
+         * @throws DbException or TransactionAbortedException if a morsel
+         *   did; other errors are rethrown as they are, or wrapped in a
+         *   DbException
+         */
+        public void await() throws DbException, TransactionAbortedException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted waiting for a pipeline");
+            }
+            Throwable e = error;
+            if (e == null)
+                return;
+            if (e instanceof DbException)
+                throw (DbException) e;
+            if (e instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) e;
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            if (e instanceof Error)
+                throw (Error) e;
+            DbException wrapped = new DbException("pipeline failed: " + e);
+            wrapped.initCause(e);
+            throw wrapped;
+        }
+
+        /** @return true if no more morsels should start */
+        private boolean stopped() {
+            return cancelled || error != null;
+        }
+
+        private void runMorsel(Pipeline pipeline, int fromPage, int toPage) {
+            try {
+                pipeline.run(fromPage, toPage, sink, new TupleBatch(BATCH_TUPLES));
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+
+        private void drain(DbIterator it) {
+            try {
+                it.open();
+                try {
+                    TupleBatch batch = new TupleBatch(BATCH_TUPLES);
+                    while (!stopped() && it.nextBatch(batch))
+                        sink.consume(batch);
+                    sink.flush();
+                } finally {
+                    it.close();
+                }
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+
+        private synchronized void fail(Throwable e) {
+            if (error == null)
+                error = e;
+        }
+
+        private void complete() {
+            try {
+                if (whenDone != null)
+                    whenDone.run();
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    /**
+     * A worker of a job: runs the job's pipeline on morsels of its file
+     * until they have all been claimed or the job is stopped.
+     */
+    private static class MorselTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Job job;
+        private final Pipeline pipeline;
+        private final Morsels morsels;
+
+        MorselTask(Job job, Pipeline pipeline, Morsels morsels) {
+            this.job = job;
+            this.pipeline = pipeline;
+            this.morsels = morsels;
+        }
+
+        protected void compute() {
+            int from;
+            while (!job.stopped() && (from = morsels.claim()) >= 0)
+                job.runMorsel(pipeline, from, morsels.end(from));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A range of the pages of a HeapFile, split into morsels of {@link #PAGES}
+ * consecutive pages that scan threads claim one at a time, each reading its
+ * morsel through a page-range iterator (see
+ * {@link HeapFile#iterator(TransactionId, int, int, Predicate[])}).  A
+ * thread that finishes its morsel early claims another, so a file with
+ * slow or dense pages keeps every thread busy to its end.
+ *
+ * @Threadsafe
+ */
+class Morsels {
+
+    /** Pages in a morsel. */
+    static final int PAGES = 16;
+
+    private final int fromPage;
+    private final int toPage;
+    private final int count;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Splits pages fromPage (inclusive) to toPage (exclusive) into morsels.
+     */
+    Morsels(int fromPage, int toPage) {
+        if (fromPage < 0 || toPage < fromPage)
+            throw new IllegalArgumentException("bad page range " + fromPage
+                    + " to " + toPage);
+        this.fromPage = fromPage;
+        this.toPage = toPage;
+        this.count = (toPage - fromPage + PAGES - 1) / PAGES;
+    }
+
+    /** @return the number of morsels */
+    int count() {
+        return count;
+    }
+
+    /**
+     * Claims the next morsel no thread has claimed yet.
+     * @return the first page of the morsel, or -1 if all have been claimed
+     */
+    int claim() {
+        int m = next.getAndIncrement();
+        return (m < count) ? fromPage + m * PAGES : -1;
+    }
+
+    /** @return the page after the last one of the morsel starting at first */
+    int end(int first) {
+        return Math.min(first + PAGES, toPage);
+    }
+}
@@ -0,0 +1,372 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * OrderBy returns the tuples of its child sorted on one or more of their
+ * fields, each ascending or descending.  Tuples that are equal on all of
+ * the fields keep the order the child returned them in.
+ * <p>
+ * The child's tuples are sorted in memory only while they fit in a memory
+ * budget.  Past that, an external merge sort streams them: each budget's
+ * worth of tuples is sorted into a run and spilled to a temporary HeapFile
+ * (see {@link SpillFile}), and the runs, with the last one left in memory,
+ * are merged through a loser tree as the tuples are read.  If there are
+ * more than {@link #MERGE_FANIN} runs, the first runs are merged into one
+ * on disk until there are few enough.
+ */
+public class OrderBy extends AbstractBatchDbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default bytes of tuples held in memory: 32 MB. */
+    public static final long DEFAULT_MEMORY_BUDGET = 32L << 20;
+
+    /** Most runs merged at once. */
+    static final int MERGE_FANIN = 64;
+
+    /**
+     * Bytes of memory a tuple is estimated to take beyond those of its
+     * fields: the Tuple, its buffer, and the run's reference to it.
+     */
+    private static final int ROW_OVERHEAD = 64;
+
+    private final TransactionId tid;
+    private final DbIterator child;
+    private final int[] fields;
+    private final boolean[] ascending;
+    private final long memoryBudget;
+    private final int maxRows;
+    private final Comparator<Tuple> order;
+
+    /** The tuples sorted in memory: all of them, or the last run. */
+    private transient Tuple[] sorted;
+    private transient int numSorted;
+    /** Runs spilled to disk, in the order they were generated. */
+    private transient List<SpillFile> runs;
+    /** The merge of the runs, or null if all the tuples fit in memory. */
+    private transient LoserTree merge;
+    private transient int pos;
+
+    /**
+     * Creates an OrderBy on a single field with the default memory budget.
+     *
+     * @param tid the transaction spilled runs are read in
+     * @param field the field to sort on
+     * @param asc true to sort ascending, false for descending
+     * @param child the tuples to sort
+     */
+    public OrderBy(TransactionId tid, int field, boolean asc, DbIterator child) {
+        this(tid, new int[] { field }, new boolean[] { asc }, child,
+                DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Creates an OrderBy that holds at most about memoryBudget bytes of
+     * tuples in memory.
+     *
+     * @param fields the fields to sort on, most significant first
+     * @param ascending for each field, true to sort it ascending, false for
+     *   descending
+     * @throws IllegalArgumentException if there are no fields, or not one
+     *   direction per field
+     */
+    public OrderBy(TransactionId tid, int[] fields, boolean[] ascending,
+            DbIterator child, long memoryBudget) {
+        if (fields.length == 0 || fields.length != ascending.length)
+            throw new IllegalArgumentException("need a direction for each of "
+                    + fields.length + " sort fields");
+        TupleDesc td = child.getTupleDesc();
+        for (int f : fields) {
+            if (f < 0 || f >= td.numFields())
+                throw new IllegalArgumentException("no field " + f + " to sort on");
+        }
+        this.tid = tid;
+        this.child = child;
+        this.fields = fields.clone();
+        this.ascending = ascending.clone();
+        this.memoryBudget = memoryBudget;
+        long rowSize = td.getSize() + ROW_OVERHEAD;
+        this.maxRows = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8,
+                memoryBudget / rowSize));
+        this.order = comparator(td, this.fields, this.ascending);
+    }
+
+    /**
+     * @return a comparator of tuples of schema td on fields, which compares
+     *   int fields without decoding them
+     */
+    private static Comparator<Tuple> comparator(TupleDesc td, final int[] fields,
+            final boolean[] ascending) {
+        final boolean[] ints = new boolean[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            ints[i] = (td.getFieldType(fields[i]) == Type.INT_TYPE);
+        return new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                for (int i = 0; i < fields.length; i++) {
+                    int f = fields[i];
+                    int c = ints[i] ? Integer.compare(a.getInt(f), b.getInt(f))
+                            : a.getString(f).compareTo(b.getString(f));
+                    if (c != 0)
+                        return ascending[i] ? c : -c;
+                }
+                return 0;
+            }
+        };
+    }
+
+    /** @return the fields tuples are sorted on, most significant first */
+    public int[] getOrderByFields() {
+        return fields.clone();
+    }
+
+    /** @return the bytes of tuples the sort holds in memory */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        runs = new ArrayList<SpillFile>();
+        try {
+            sort();
+            while (runs.size() > MERGE_FANIN)
+                mergeRuns();
+            startMerge();
+        } catch (DbException e) {
+            clear();
+            throw e;
+        } catch (TransactionAbortedException e) {
+            clear();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the child's tuples, sorting each memory budget's worth and
+     * spilling it as a run; the tuples left over are sorted in memory.
+     */
+    private void sort() throws DbException, TransactionAbortedException {
+        sorted = new Tuple[Math.min(maxRows, 1024)];
+        numSorted = 0;
+        TupleBatch batch = new TupleBatch();
+        while (child.nextBatch(batch)) {
+            for (int i = 0; i < batch.size(); i++) {
+                if (numSorted == maxRows) {
+                    Arrays.sort(sorted, 0, numSorted, order);
+                    spillRun();
+                }
+                if (numSorted == sorted.length)
+                    sorted = Arrays.copyOf(sorted,
+                            (int) Math.min(maxRows, 2L * sorted.length));
+                Tuple t = batch.get(i);
+                // a view is only valid until the next batch is read
+                sorted[numSorted++] = (t instanceof TupleView) ? t.copy() : t;
+            }
+        }
+        Arrays.sort(sorted, 0, numSorted, order);
+    }
+
+    /** Writes the sorted tuples in memory out as a run. */
+    private void spillRun() throws DbException {
+        SpillFile run = new SpillFile(getTupleDesc());
+        runs.add(run);
+        for (int i = 0; i < numSorted; i++)
+            run.append(sorted[i]);
+        run.finish();
+        Arrays.fill(sorted, 0, numSorted, null);
+        numSorted = 0;
+    }
+
+    /** Merges the first MERGE_FANIN runs into one, which replaces them. */
+    private void mergeRuns() throws DbException, TransactionAbortedException {
+        List<SpillFile> first = runs.subList(0, MERGE_FANIN);
+        DbFileIterator[] in = new DbFileIterator[first.size()];
+        for (int i = 0; i < in.length; i++)
+            in[i] = first.get(i).finish().viewIterator(tid);
+        SpillFile merged = new SpillFile(getTupleDesc());
+        LoserTree tree = new LoserTree(in, order);
+        try {
+            tree.open();
+            for (Tuple t = tree.peek(); t != null; t = tree.peek()) {
+                merged.append(t);
+                tree.pop();
+            }
+            merged.finish();
+        } catch (DbException e) {
+            merged.delete();
+            throw e;
+        } catch (TransactionAbortedException e) {
+            merged.delete();
+            throw e;
+        } finally {
+            tree.close();
+        }
+        for (SpillFile run : first)
+            run.delete();
+        first.clear();
+        runs.add(0, merged);
+    }
+
+    /** Starts returning the tuples, by merging the runs if there are any. */
+    private void startMerge() throws DbException, TransactionAbortedException {
+        pos = 0;
+        if (runs.isEmpty())
+            return;
+        DbFileIterator[] in = new DbFileIterator[runs.size() + 1];
+        for (int i = 0; i < runs.size(); i++)
+            in[i] = runs.get(i).finish().viewIterator(tid);
+        // the last run, never spilled, comes after those that were
+        in[runs.size()] = new AbstractDbFileIterator() {
+            private int next = 0;
+
+            public void open() {
+            }
+
+            protected Tuple readNext() {
+                return (next < numSorted) ? sorted[next++] : null;
+            }
+
+            public void rewind() {
+                super.close();
+                next = 0;
+            }
+        };
+        merge = new LoserTree(in, order);
+        merge.open();
+    }
+
+    protected boolean readBatch(TupleBatch batch)
+            throws DbException, TransactionAbortedException {
+        if (runs == null)
+            throw new IllegalStateException("order by not open");
+        if (merge == null) {
+            while (!batch.isFull() && pos < numSorted)
+                batch.add(sorted[pos++]);
+            return batch.size() > 0;
+        }
+        while (!batch.isFull()) {
+            Tuple t = merge.peek();
+            if (t == null)
+                break;
+            // copied before its run moves on to the next tuple
+            batch.add((t instanceof TupleView) ? t.copy() : t);
+            merge.pop();
+        }
+        return batch.size() > 0;
+    }
+
+    /** Returns the tuples again, without sorting them again. */
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        if (runs == null)
+            throw new IllegalStateException("order by not open");
+        if (merge != null)
+            merge.close();
+        merge = null;
+        startMerge();
+    }
+
+    public void close() {
+        clear();
+        child.close();
+    }
+
+    /** Drops the sorted tuples and deletes the runs. */
+    private void clear() {
+        super.close();
+        if (merge != null)
+            merge.close();
+        merge = null;
+        if (runs != null) {
+            for (SpillFile run : runs)
+                run.delete();
+        }
+        runs = null;
+        sorted = null;
+        numSorted = 0;
+        pos = 0;
+    }
+
+    /**
+     * A k-way merge of sorted inputs through a tree of losers: each inner
+     * node holds the input that lost the comparison there, and node 0 the
+     * overall winner, so that taking the winner's next tuple costs log k
+     * comparisons, against the losers on the path from its leaf to the root
+     * only.  Ties go to the input that comes first.
+     */
+    private static class LoserTree {
+        private final DbFileIterator[] in;
+        private final Comparator<Tuple> order;
+        private final int k;
+        /** The head tuple of each input; null once it is used up. */
+        private final Tuple[] heads;
+        private final int[] tree;
+
+        LoserTree(DbFileIterator[] in, Comparator<Tuple> order) {
+            this.in = in;
+            this.order = order;
+            this.k = in.length;
+            this.heads = new Tuple[k];
+            this.tree = new int[k];
+        }
+
+        void open() throws DbException, TransactionAbortedException {
+            for (int i = 0; i < k; i++) {
+                in[i].open();
+                heads[i] = in[i].hasNext() ? in[i].next() : null;
+            }
+            // k stands for an input that beats all others, pushed out as
+            // the real inputs are added
+            Arrays.fill(tree, k);
+            for (int i = k - 1; i >= 0; i--)
+                adjust(i);
+        }
+
+        /** @return true if input a's head comes before input b's */
+        private boolean beats(int a, int b) {
+            if (a == k || b == k)
+                return a == k;
+            if (heads[a] == null || heads[b] == null)
+                return heads[b] == null && (heads[a] != null || a < b);
+            int c = order.compare(heads[a], heads[b]);
+            return c < 0 || (c == 0 && a < b);
+        }
+
+        /** Replays the matches from the leaf of input s to the root. */
+        private void adjust(int s) {
+            for (int t = (s + k) / 2; t > 0; t /= 2) {
+                if (beats(tree[t], s)) {
+                    int winner = tree[t];
+                    tree[t] = s;
+                    s = winner;
+                }
+            }
+            tree[0] = s;
+        }
+
+        /** @return the least head tuple, or null once all are used up */
+        Tuple peek() {
+            return heads[tree[0]];
+        }
+
+        /** Moves the input of the least head tuple on to its next tuple. */
+        void pop() throws DbException, TransactionAbortedException {
+            int w = tree[0];
+            heads[w] = in[w].hasNext() ? in[w].next() : null;
+            adjust(w);
+        }
+
+        void close() {
+            for (DbFileIterator it : in)
+                it.close();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package simpledb;
+
+/**
+ * ParallelScan reads a HeapFile on the worker threads of a
+ * {@link MorselScheduler}, which scan it in morsels of consecutive pages,
+ * and gathers their tuples through an {@link Exchange}.
+ * <p>
+ * Tuples are returned in no particular order.  The workers never return
+ * views: a view is only valid on the thread that moves it.
+ *
+ * @see SeqScan#setParallelism
+ */
+class ParallelScan extends AbstractDbFileIterator {
+
+    private final Pipeline pipeline;
+    private final MorselScheduler scheduler;
+    private DbIterator gather;
+
+    /**
+     * @param filters predicates the tuples must pass, or null for none
+     * @param parallelism the most worker threads to scan with
+     */
+    ParallelScan(HeapFile file, TransactionId tid, Predicate[] filters,
+            int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("a scan needs a worker");
+        this.pipeline = new Pipeline(tid, file,
+                (filters == null) ? new Predicate[0] : filters);
+        this.scheduler = new MorselScheduler(parallelism);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        gather = new Exchange(scheduler, pipeline, Exchange.Mode.GATHER, 1, 0)
+                .getConsumer(0);
+        gather.open();
+    }
+
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        if (gather == null || !gather.hasNext())
+            return null;
+        return gather.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    /** Stops the workers and waits for them to finish. */
+    public void close() {
+        super.close();
+        if (gather != null)
+            gather.close();
+        gather = null;
+    }
+}
@@ -0,0 +1,73 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Pipeline is a scan of a HeapFile followed by stages that each tuple
+ * passes through without waiting for other tuples: filters, projections,
+ * hash table probes.  A {@link MorselScheduler} runs a pipeline in morsels
+ * of consecutive pages, many at once, into a {@link TupleSink}.
+ */
+public class Pipeline {
+
+    private final TransactionId tid;
+    private final HeapFile file;
+    private final Predicate[] filters;
+    private final List<PipelineStage> stages = new ArrayList<PipelineStage>();
+
+    /**
+     * Creates a pipeline that scans file as part of the specified
+     * transaction.
+     *
+     * @param filters predicates on the fields of the file's tuples, which
+     *   the scan evaluates on page bytes; see
+     *   {@link HeapFile#iterator(TransactionId, int, int, Predicate[])}
+     */
+    public Pipeline(TransactionId tid, HeapFile file, Predicate... filters) {
+        this.tid = tid;
+        this.file = file;
+        this.filters = (filters.length == 0) ? null : filters.clone();
+    }
+
+    /**
+     * Adds a stage to the end of the pipeline.
+     * @return this pipeline
+     */
+    public Pipeline then(PipelineStage stage) {
+        stages.add(stage);
+        return this;
+    }
+
+    /** @return the schema of the tuples the pipeline produces */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = file.getTupleDesc();
+        for (PipelineStage stage : stages)
+            td = stage.getTupleDesc(td);
+        return td;
+    }
+
+    /** @return the file the pipeline scans */
+    public HeapFile getFile() {
+        return file;
+    }
+
+    /**
+     * Feeds the tuples on pages fromPage to toPage of the file through the
+     * stages into sink, then flushes the stages.
+     */
+    void run(int fromPage, int toPage, TupleSink sink, TupleBatch batch)
+            throws DbException, TransactionAbortedException {
+        for (int i = stages.size() - 1; i >= 0; i--)
+            sink = stages.get(i).open(sink);
+        DbFileIterator it = file.iterator(tid, fromPage, toPage, filters);
+        it.open();
+        try {
+            while (it.nextBatch(batch))
+                sink.consume(batch);
+            sink.flush();
+        } finally {
+            it.close();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package simpledb;
+
+/**
+ * A PipelineStage is one step of a {@link Pipeline}, between its scan and
+ * the sink it runs into: a filter, a projection, the probe of a hash table.
+ * The scheduler runs the morsels of a pipeline on many threads at once, so
+ * a stage is opened once per morsel, and each sink it opens is only used by
+ * the thread running that morsel.  State that all morsels share, such as a
+ * hash table, must be thread-safe.
+ */
+public interface PipelineStage {
+
+    /**
+     * Returns the sink through which one morsel feeds this stage, which
+     * passes the tuples the stage produces on to next.
+     */
+    public TupleSink open(TupleSink next);
+
+    /**
+     * @return the schema of the tuples the stage produces from tuples of
+     *   schema in; by default the stage passes on tuples of the same schema
+     */
+    default TupleDesc getTupleDesc(TupleDesc in) {
+        return in;
+    }
+
+    /**
+     * Returns a stage that passes on the tuples that pass all of filters.
+     * Filters on the fields of a pipeline's file are better pushed into its
+     * scan, which evaluates them on page bytes; this stage is for tuples
+     * other stages produce.
+     */
+    public static PipelineStage filter(Predicate... filters) {
+        final Predicate[] ps = filters.clone();
+        return new PipelineStage() {
+            public TupleSink open(final TupleSink next) {
+                return new TupleSink() {
+                    private final TupleBatch out = new TupleBatch(MorselScheduler.BATCH_TUPLES);
+
+                    public void consume(TupleBatch batch)
+                            throws DbException, TransactionAbortedException {
+                        for (int i = 0; i < batch.size(); i++) {
+                            Tuple t = batch.get(i);
+                            if (!Predicate.filter(ps, t))
+                                continue;
+                            out.add(t);
+                            if (out.isFull())
+                                emit();
+                        }
+                    }
+
+                    public void flush() throws DbException, TransactionAbortedException {
+                        emit();
+                        next.flush();
+                    }
+
+                    private void emit() throws DbException, TransactionAbortedException {
+                        if (out.size() > 0) {
+                            next.consume(out);
+                            out.clear();
+                        }
+                    }
+                };
+            }
+        };
+    }
+}
@@ -1,6 +1,10 @@
 package simpledb;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
 
 /**
  * Predicate compares tuples to a specified Field value.
@@ -9,6 +13,12 @@ public class Predicate implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    private final int field;
+    private final Op op;
+    private final Field operand;
+    /** The bytes of a string operand if it is ASCII, else null; see asciiBytes(). */
+    private final transient byte[] operandBytes;
+
     /** Constants used for return codes in Field.compare */
     public enum Op implements Serializable {
         EQUALS, GREATER_THAN, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN_OR_EQ, LIKE, NOT_EQUALS;
@@ -55,7 +65,15 @@ public class Predicate implements Serializable {
      *            field value to compare passed in tuples to
      */
     public Predicate(int field, Op op, Field operand) {
-        // some code goes here
+        this.field = field;
+        this.op = op;
+        this.operand = operand;
+        this.operandBytes = asciiBytes(operand);
+    }
+
+    /** @return a copy of this predicate with its operand's bytes set again */
+    private Object readResolve() throws ObjectStreamException {
+        return new Predicate(field, op, operand);
     }
 
     /**
@@ -63,8 +81,7 @@ public class Predicate implements Serializable {
      */
     public int getField()
     {
-        // some code goes here
-        return -1;
+        return field;
     }
 
     /**
@@ -72,8 +89,7 @@ public class Predicate implements Serializable {
      */
     public Op getOp()
     {
-        // some code goes here
-        return null;
+        return op;
     }
     
     /**
@@ -81,23 +97,242 @@ public class Predicate implements Serializable {
      */
     public Field getOperand()
     {
-        // some code goes here
-        return null;
+        return operand;
     }
     
     /**
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific in
      * the constructor. The comparison can be made through Field's compare
-     * method.
+     * method; int fields are compared through {@link Tuple#getInt}, without
+     * allocating a Field for the tuple's value.
      * 
      * @param t
      *            The tuple to compare against
      * @return true if the comparison is true, false otherwise.
      */
     public boolean filter(Tuple t) {
-        // some code goes here
-        return false;
+        if (operand instanceof IntField)
+            return IntField.compare(op, t.getInt(field), ((IntField) operand).getValue());
+        return t.getField(field).compare(op, operand);
+    }
+
+    /**
+     * Narrows the selection of batch to the selected rows whose field
+     * satisfies this predicate.  Int fields are compared in a loop over the
+     * column vector per operator, which writes each row to the selection
+     * vector and advances its end only if the row passes, so that the loop
+     * has no branch on the data.  String fields are compared on their bytes
+     * if the operand is ASCII, where that orders them as Field.compare does,
+     * and through Field.compare otherwise.
+     *
+     * @return the number of rows left selected
+     */
+    public int filter(ColumnBatch batch) {
+        int n = batch.numSelected();
+        boolean dense = batch.isDense();
+        int[] sel = batch.selection();
+        int k;
+        Type type = batch.getTupleDesc().getFieldType(field);
+        if (type == Type.INT_TYPE && operand instanceof IntField) {
+            k = filterInts(op, batch.ints(field), ((IntField) operand).getValue(),
+                    dense, sel, n);
+        } else if (type != Type.INT_TYPE && operandBytes != null) {
+            k = filterChars(op, batch.chars(field), batch.lengths(field),
+                    operandBytes, dense, sel, n);
+        } else {
+            k = 0;
+            for (int i = 0; i < n; i++) {
+                int row = dense ? i : sel[i];
+                if (batch.getField(field, row).compare(op, operand))
+                    sel[k++] = row;
+            }
+        }
+        batch.select(k);
+        return k;
+    }
+
+    /**
+     * Compares the field of the tuple stored at the absolute offset off of
+     * data, laid out as on a HeapPage with schema td, as filter(Tuple)
+     * compares a tuple holding it.  The field is read in place: int fields,
+     * and string fields when the operand is ASCII, are compared without
+     * decoding the tuple or allocating a Field.
+     *
+     * @return true if the comparison is true, false otherwise.
+     */
+    public boolean filter(ByteBuffer data, int off, TupleDesc td) {
+        int at = off + td.getOffset(field);
+        Type type = td.getFieldType(field);
+        if (type == Type.INT_TYPE && operand instanceof IntField)
+            return IntField.compare(op, data.getInt(at), ((IntField) operand).getValue());
+        if (type != Type.INT_TYPE && operandBytes != null) {
+            int len = data.getInt(at);
+            if (len < 0 || len > Type.STRING_LEN)
+                throw new NoSuchElementException("parsing error!");
+            return matches(op, data, at + 4, len, operandBytes);
+        }
+        try {
+            return type.parse(data, at).compare(op, operand);
+        } catch (ParseException e) {
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /**
+     * @return true if t passes all of filters, which may be null
+     */
+    static boolean filter(Predicate[] filters, Tuple t) {
+        if (filters != null) {
+            for (Predicate p : filters) {
+                if (!p.filter(t))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the tuple at off in data passes all of filters, which
+     *   may be null
+     */
+    static boolean filter(Predicate[] filters, ByteBuffer data, int off, TupleDesc td) {
+        if (filters != null) {
+            for (Predicate p : filters) {
+                if (!p.filter(data, off, td))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the bytes of a string operand that is all ASCII, which
+     * compare as unsigned bytes in the order Field.compare compares the
+     * strings they encode; otherwise null.
+     */
+    private static byte[] asciiBytes(Field operand) {
+        if (!(operand instanceof StringField))
+            return null;
+        String s = ((StringField) operand).getValue();
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80)
+                return null;
+        }
+        return s.getBytes();
+    }
+
+    /**
+     * Compacts the rows of col that compare to v by op to the front of sel;
+     * the rows are the first n of sel, or 0 to n-1 if dense.  Rows are only
+     * ever moved forward, so sel can be overwritten as it is read.
+     *
+     * @return the number of rows kept
+     */
+    private static int filterInts(Op op, int[] col, int v, boolean dense,
+            int[] sel, int n) {
+        int k = 0;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            for (int i = 0; i < n; i++) {
+                int row = dense ? i : sel[i];
+                sel[k] = row;
+                k += (col[row] == v) ? 1 : 0;
+            }
+            break;
+        case NOT_EQUALS:
+            for (int i = 0; i < n; i++) {
+                int row = dense ? i : sel[i];
+                sel[k] = row;
+                k += (col[row] != v) ? 1 : 0;
+            }
+            break;
+        case GREATER_THAN:
+            for (int i = 0; i < n; i++) {
+                int row = dense ? i : sel[i];
+                sel[k] = row;
+                k += (col[row] > v) ? 1 : 0;
+            }
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int i = 0; i < n; i++) {
+                int row = dense ? i : sel[i];
+                sel[k] = row;
+                k += (col[row] >= v) ? 1 : 0;
+            }
+            break;
+        case LESS_THAN:
+            for (int i = 0; i < n; i++) {
+                int row = dense ? i : sel[i];
+                sel[k] = row;
+                k += (col[row] < v) ? 1 : 0;
+            }
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int i = 0; i < n; i++) {
+                int row = dense ? i : sel[i];
+                sel[k] = row;
+                k += (col[row] <= v) ? 1 : 0;
+            }
+            break;
+        }
+        return k;
+    }
+
+    /**
+     * As filterInts, for a string column of Type.STRING_LEN bytes a row,
+     * compared as unsigned bytes to v.
+     */
+    private static int filterChars(Op op, byte[] chars, int[] lengths,
+            byte[] v, boolean dense, int[] sel, int n) {
+        ByteBuffer b = ByteBuffer.wrap(chars);
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            int row = dense ? i : sel[i];
+            sel[k] = row;
+            k += matches(op, b, row * Type.STRING_LEN, lengths[row], v) ? 1 : 0;
+        }
+        return k;
+    }
+
+    /**
+     * Compares the len bytes at off in b to v as unsigned bytes.
+     */
+    private static boolean matches(Op op, ByteBuffer b, int off, int len, byte[] v) {
+        if (op == Op.LIKE)
+            return indexOf(b, off, len, v) >= 0;
+        int cmp = compare(b, off, len, v);
+        switch (op) {
+        case EQUALS:             return cmp == 0;
+        case NOT_EQUALS:         return cmp != 0;
+        case GREATER_THAN:       return cmp > 0;
+        case GREATER_THAN_OR_EQ: return cmp >= 0;
+        case LESS_THAN:          return cmp < 0;
+        default:                 return cmp <= 0;
+        }
+    }
+
+    private static int compare(ByteBuffer a, int off, int len, byte[] b) {
+        int n = Math.min(len, b.length);
+        for (int i = 0; i < n; i++) {
+            int c = (a.get(off + i) & 0xff) - (b[i] & 0xff);
+            if (c != 0)
+                return c;
+        }
+        return len - b.length;
+    }
+
+    private static int indexOf(ByteBuffer a, int off, int len, byte[] b) {
+        outer:
+        for (int i = 0; i <= len - b.length; i++) {
+            for (int j = 0; j < b.length; j++) {
+                if (a.get(off + i + j) != b[j])
+                    continue outer;
+            }
+            return i;
+        }
+        return -1;
     }
 
     /**
@@ -105,7 +340,6 @@ public class Predicate implements Serializable {
      * operand_string
      */
     public String toString() {
-        // some code goes here
-        return "";
+        return "f = " + field + " op = " + op + " operand = " + operand;
     }
 }
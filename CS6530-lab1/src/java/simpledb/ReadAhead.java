@@ -0,0 +1,143 @@
+package simpledb;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ReadAhead issues background reads for one sequential scan.  It watches the
+ * page numbers the scan requests from the BufferPool and, once it has seen a
+ * run of consecutive pages, has a loader thread bring the next pages of the
+ * table into the BufferPool before the scan asks for them.
+ * <p>
+ * The window of pages read ahead starts at the size configured on the
+ * BufferPool.  Read-ahead never forces a page out that is still referenced,
+ * so when the pool has no idle frame to spare the window is halved; it
+ * regains one page for every window's worth of sequential accesses that
+ * follow without further pressure.
+ *
+ * @see BufferPool#setReadAheadPages
+ * @Threadsafe
+ */
+class ReadAhead {
+
+    /** Consecutive pages a scan must request before read-ahead starts. */
+    private static final int TRIGGER = 2;
+
+    private static final int LOADER_THREADS = 4;
+
+    /** Loader threads, shared by all scans; daemons so they never keep the VM alive. */
+    private static final ExecutorService LOADERS =
+        Executors.newFixedThreadPool(LOADER_THREADS, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-readahead");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    private final BufferPool pool;
+    private final BufferPool.AccessStrategy strategy;
+    private final int maxWindow;
+    private final int numPages;
+
+    // the following are guarded by this
+    private int window;
+    private int lastPgNo = -2;
+    private int run = 0;
+    private int requestedTo = -1;
+    private int calm = 0;
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param pool the BufferPool to load pages into
+     * @param strategy the strategy of the scan, used for its loads
+     * @param window the maximum number of pages to read ahead
+     * @param numPages the number of pages in the scanned file; pages
+     *   past the end are never requested
+     */
+    ReadAhead(BufferPool pool, BufferPool.AccessStrategy strategy, int window, int numPages) {
+        this.pool = pool;
+        this.strategy = strategy;
+        this.maxWindow = window;
+        this.window = window;
+        this.numPages = numPages;
+    }
+
+    /**
+     * Records that the scan requested pid, and schedules loads of the pages
+     * that follow it if the scan is reading sequentially.
+     */
+    synchronized void accessed(PageId pid) {
+        if (!(pid instanceof HeapPageId) || cancelled)
+            return;
+        int pgNo = pid.pageNumber();
+        if (pgNo == lastPgNo + 1) {
+            run++;
+        } else {
+            run = 0;
+            requestedTo = pgNo;
+        }
+        lastPgNo = pgNo;
+
+        if (window < maxWindow && ++calm >= maxWindow) {
+            window++;
+            calm = 0;
+        }
+        if (run < TRIGGER || window == 0)
+            return;
+
+        final int tableId = pid.getTableId();
+        final int from = Math.max(requestedTo + 1, pgNo + 1);
+        final int to = Math.min(pgNo + window, numPages - 1);
+        if (from > to)
+            return;
+        requestedTo = to;
+        LOADERS.execute(new Runnable() {
+            public void run() {
+                load(tableId, from, to);
+            }
+        });
+    }
+
+    /** Stops loading pages for this scan. */
+    void cancel() {
+        cancelled = true;
+    }
+
+    private void load(int tableId, int from, int to) {
+        for (int pgNo = from; pgNo <= to && !cancelled; pgNo++) {
+            HeapPageId pid = new HeapPageId(tableId, pgNo);
+            if (passed(pid))
+                continue;
+            boolean loaded;
+            try {
+                loaded = pool.readAhead(pid, strategy);
+            } catch (Exception e) {
+                // the scan reads the page itself when it gets there, and
+                // reports the failure then if there is one
+                return;
+            }
+            if (!loaded) {
+                backOff(pgNo);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if the scan has already requested pid or a page after
+     *   it; a loader that fell behind must not read such a page again
+     */
+    synchronized boolean passed(PageId pid) {
+        return pid.pageNumber() <= lastPgNo;
+    }
+
+    private synchronized void backOff(int pgNo) {
+        window /= 2;
+        calm = 0;
+        // pages from pgNo on were not loaded; allow them to be requested again
+        requestedTo = Math.min(requestedTo, pgNo - 1);
+    }
+}
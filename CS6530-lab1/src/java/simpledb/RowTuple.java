@@ -0,0 +1,188 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A Tuple that stores its fields in a single byte array, laid out as on a
+ * HeapPage: each field at its {@link TupleDesc#getOffset} and in
+ * {@link Type#getLen()} bytes.  A tuple is then two objects however many
+ * fields it has, and {@link #getInt} reads a value straight from the
+ * bytes.  {@link #getField} still works, but builds a new Field on every
+ * call.
+ *
+ * @see HeapPage
+ * @see TupleView
+ */
+public class RowTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The tuple is the getTupleDesc().getSize() bytes at base in buf, read
+     * with absolute gets only; a TupleView moves them from row to row.
+     * Serialized as the array of those bytes.
+     */
+    transient ByteBuffer buf;
+    transient int base;
+
+    /**
+     * Create a new tuple with the specified schema, with int fields of 0
+     * and empty strings.
+     */
+    public RowTuple(TupleDesc td) {
+        super(td, false);
+        this.buf = ByteBuffer.wrap(new byte[td.getSize()]);
+    }
+
+    /**
+     * For TupleView, which points buf at the bytes of a page.
+     */
+    RowTuple(TupleDesc td, boolean view) {
+        super(td, false);
+    }
+
+    /**
+     * Create a tuple from the td.getSize() bytes of a tuple at the absolute
+     * offset off of buf, copying them.
+     */
+    public RowTuple(TupleDesc td, ByteBuffer buf, int off) {
+        this(td);
+        ByteBuffer src = buf.duplicate();
+        src.position(off);
+        src.limit(off + td.getSize());
+        this.buf.put(src);
+        this.buf.clear();
+    }
+
+    /**
+     * @return a RowTuple with a copy of this tuple's bytes and RecordId
+     */
+    public RowTuple copy() {
+        RowTuple t = new RowTuple(getTupleDesc(), buf, base);
+        t.setRecordId(getRecordId());
+        return t;
+    }
+
+    /**
+     * Returns a new tuple of schema td, which is the schema of a followed
+     * by that of b, holding the fields of a and then those of b.  The bytes
+     * of RowTuples are copied as they are, without decoding their fields.
+     */
+    static RowTuple concat(TupleDesc td, Tuple a, Tuple b) {
+        RowTuple t = new RowTuple(td);
+        int na = a.getTupleDesc().numFields();
+        if (a instanceof RowTuple && b instanceof RowTuple) {
+            ByteBuffer out = t.buf.duplicate();
+            ((RowTuple) a).serialize(out);
+            ((RowTuple) b).serialize(out);
+        } else {
+            for (int i = 0; i < na; i++)
+                t.setField(i, a.getField(i));
+            for (int i = 0; i < b.getTupleDesc().numFields(); i++)
+                t.setField(na + i, b.getField(i));
+        }
+        return t;
+    }
+
+    /**
+     * Set the value of the ith field, which must be of the field's type.
+     *
+     * @throws IllegalArgumentException if f is not of the ith field's type
+     */
+    public void setField(int i, Field f) {
+        Type type = getTupleDesc().getFieldType(i);
+        if (f == null || f.getType() != type)
+            throw new IllegalArgumentException("field " + i + " is not a " + type);
+        int off = getTupleDesc().getOffset(i);
+        byte[] row = buf.array();
+        ByteBuffer out = ByteBuffer.wrap(row, off, type.getLen());
+        f.serialize(out);
+        Arrays.fill(row, out.position(), off + type.getLen(), (byte) 0);
+    }
+
+    /**
+     * @return a new Field holding the value of the ith field.
+     */
+    public Field getField(int i) {
+        try {
+            return getTupleDesc().getFieldType(i).parse(buf,
+                    base + getTupleDesc().getOffset(i));
+        } catch (java.text.ParseException e) {
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    public int getInt(int i) {
+        if (getTupleDesc().getFieldType(i) != Type.INT_TYPE)
+            throw new ClassCastException("field " + i + " is not an int");
+        return buf.getInt(base + getTupleDesc().getOffset(i));
+    }
+
+    public String getString(int i) {
+        Type type = getTupleDesc().getFieldType(i);
+        if (type == Type.INT_TYPE)
+            throw new ClassCastException("field " + i + " is not a string");
+        int off = base + getTupleDesc().getOffset(i);
+        int len = buf.getInt(off);
+        if (len < 0 || len > Type.STRING_LEN)
+            throw new NoSuchElementException("parsing error!");
+        // as Type.parse decodes strings
+        if (buf.hasArray())
+            return new String(buf.array(), buf.arrayOffset() + off + 4, len);
+        byte[] bs = new byte[len];
+        for (int j = 0; j < len; j++)
+            bs[j] = buf.get(off + 4 + j);
+        return new String(bs);
+    }
+
+    /**
+     * Writes the tuple's bytes, as a HeapPage stores them, to out at its
+     * position.
+     */
+    public void serialize(ByteBuffer out) {
+        ByteBuffer src = buf.duplicate();
+        src.position(base);
+        src.limit(base + getTupleDesc().getSize());
+        out.put(src);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        byte[] row = new byte[getTupleDesc().getSize()];
+        ByteBuffer dst = ByteBuffer.wrap(row);
+        serialize(dst);
+        out.writeObject(row);
+    }
+
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        buf = ByteBuffer.wrap((byte[]) in.readObject());
+        base = 0;
+    }
+
+    /**
+     * Reset the TupleDesc of this tuple.  Fields that td has at the same
+     * index and of the same type as the current TupleDesc keep their
+     * values; fields td adds are 0 or empty.
+     *
+     * @throws IllegalArgumentException if a field of both TupleDescs
+     *   changes type
+     */
+    public void resetTupleDesc(TupleDesc td) {
+        TupleDesc old = getTupleDesc();
+        byte[] row = buf.array();
+        byte[] reset = new byte[td.getSize()];
+        for (int i = 0; i < Math.min(old.numFields(), td.numFields()); i++) {
+            Type type = td.getFieldType(i);
+            if (type != old.getFieldType(i))
+                throw new IllegalArgumentException("field " + i + " changes type");
+            System.arraycopy(row, old.getOffset(i), reset, td.getOffset(i), type.getLen());
+        }
+        buf = ByteBuffer.wrap(reset);
+        super.resetTupleDesc(td);
+    }
+}
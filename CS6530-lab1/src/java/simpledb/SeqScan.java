@@ -11,6 +11,14 @@ public class SeqScan implements DbIterator {
 
     private static final long serialVersionUID = 1L;
 
+    private final TransactionId tid;
+    private final boolean views;
+    private final Predicate[] filters;
+    private int parallelism = 1;
+    private int tableid;
+    private String tableAlias;
+    private transient DbFileIterator it;
+
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -28,7 +36,29 @@ public class SeqScan implements DbIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
-        // some code goes here
+        this(tid, tableid, tableAlias, false);
+    }
+
+    /**
+     * Creates a sequential scan that, if views is true, returns flyweight
+     * views of the tuples in the table's pages where the table supports
+     * them (see {@link HeapFile#viewIterator}): each tuple returned is
+     * only valid until the next call to next(), and consumers that keep a
+     * tuple must keep its {@link Tuple#copy}.  Meant for read-only
+     * transactions that scan large tables.
+     * <p>
+     * The scan returns only the tuples that pass all of filters, predicates
+     * on the fields of the table's tuples.  HeapFiles evaluate them on the
+     * bytes of their pages, and decode only the tuples that pass; see
+     * {@link HeapFile#iterator(TransactionId, boolean, Predicate[])}.  The
+     * filters are kept if the scan is reset to another table.
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, boolean views,
+            Predicate... filters) {
+        this.tid = tid;
+        this.views = views;
+        this.filters = (filters.length == 0) ? null : filters.clone();
+        reset(tableid, tableAlias);
     }
 
     /**
@@ -37,7 +67,7 @@ public class SeqScan implements DbIterator {
      *       be the actual name of the table in the catalog of the database
      * */
     public String getTableName() {
-        return null;
+        return Database.getCatalog().getTableName(tableid);
     }
 
     /**
@@ -45,8 +75,7 @@ public class SeqScan implements DbIterator {
      * */
     public String getAlias()
     {
-        // some code goes here
-        return null;
+        return tableAlias;
     }
 
     /**
@@ -62,7 +91,31 @@ public class SeqScan implements DbIterator {
      *            tableAlias.null, or null.null).
      */
     public void reset(int tableid, String tableAlias) {
-        // some code goes here
+        close();
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+    }
+
+    /**
+     * Sets the number of threads the scan reads a HeapFile with from its
+     * next open().  With more than one, the workers of a
+     * {@link MorselScheduler} read the file in morsels of consecutive pages
+     * and next() returns their tuples as they come, in no particular order;
+     * the scan then never returns views.
+     * Other DbFiles are always read on the calling thread.
+     *
+     * @param workers the most threads to scan with; 1 to scan on the
+     *   calling thread
+     */
+    public void setParallelism(int workers) {
+        if (workers < 1)
+            throw new IllegalArgumentException("a scan needs a thread");
+        this.parallelism = workers;
+    }
+
+    /** @return the number of threads the scan reads a HeapFile with */
+    public int getParallelism() {
+        return parallelism;
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -70,7 +123,50 @@ public class SeqScan implements DbIterator {
     }
 
     public void open() throws DbException, TransactionAbortedException {
-        // some code goes here
+        // a parallel scan left open keeps its workers waiting to hand over tuples
+        close();
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (file instanceof HeapFile && parallelism > 1)
+            it = new ParallelScan((HeapFile) file, tid, filters, parallelism);
+        else if (file instanceof HeapFile)
+            it = ((HeapFile) file).iterator(tid, views, filters);
+        else if (filters != null)
+            it = filter(file.iterator(tid), filters);
+        else
+            it = file.iterator(tid);
+        it.open();
+    }
+
+    /**
+     * @return an iterator over the tuples of in that pass all of filters
+     */
+    private static DbFileIterator filter(final DbFileIterator in,
+            final Predicate[] filters) {
+        return new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                in.open();
+            }
+
+            protected Tuple readNext() throws DbException,
+                    TransactionAbortedException {
+                while (in.hasNext()) {
+                    Tuple t = in.next();
+                    if (Predicate.filter(filters, t))
+                        return t;
+                }
+                return null;
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                super.close();
+                in.rewind();
+            }
+
+            public void close() {
+                super.close();
+                in.close();
+            }
+        };
     }
 
     /**
@@ -84,27 +180,54 @@ public class SeqScan implements DbIterator {
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
-        // some code goes here
-        return null;
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        int n = td.numFields();
+        Type[] types = new Type[n];
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = tableAlias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
-        // some code goes here
-        return false;
+        checkOpen();
+        return it.hasNext();
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        // some code goes here
-        return null;
+        checkOpen();
+        return it.next();
+    }
+
+    public boolean nextBatch(TupleBatch batch) throws DbException,
+            TransactionAbortedException {
+        checkOpen();
+        return it.nextBatch(batch);
+    }
+
+    public boolean nextColumns(ColumnBatch batch) throws DbException,
+            TransactionAbortedException {
+        checkOpen();
+        return it.nextColumns(batch);
     }
 
     public void close() {
-        // some code goes here
+        if (it != null)
+            it.close();
+        it = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        // some code goes here
+        checkOpen();
+        it.rewind();
+    }
+
+    private void checkOpen() {
+        if (it == null)
+            throw new IllegalStateException("SeqScan is not open");
     }
 }
@@ -43,8 +43,9 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            HeapFileEncoder.convertParallel(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator,
+                        Runtime.getRuntime().availableProcessors());
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -67,6 +68,40 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("benchmark")) {
+            // encoder throughput on a generated file of random ints
+            if (args.length<3 || args.length>4){
+                System.err.println("Usage: benchmark rows columns [threads]");
+                return;
+            }
+            long rows = Long.parseLong(args[1]);
+            int columns = Integer.parseInt(args[2]);
+            int threads = (args.length == 4) ? Integer.parseInt(args[3])
+                    : Runtime.getRuntime().availableProcessors();
+            Type[] ts = new Type[columns];
+            for (int i=0;i<columns;i++)
+                ts[i]=Type.INT_TYPE;
+
+            File text = File.createTempFile("benchmark", ".txt");
+            text.deleteOnExit();
+            java.util.Random r = new java.util.Random(0);
+            BufferedWriter w = new BufferedWriter(new FileWriter(text), 1 << 16);
+            for (long row = 0; row < rows; row++) {
+                for (int i=0;i<columns;i++) {
+                    if (i > 0)
+                        w.write(',');
+                    w.write(Integer.toString(r.nextInt()));
+                }
+                w.write('\n');
+            }
+            w.close();
+            try {
+                HeapFileEncoder.benchmark(text, columns, ts, ',', 0, System.out);
+                HeapFileEncoder.benchmark(text, columns, ts, ',', threads, System.out);
+            } finally {
+                text.delete();
+            }
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
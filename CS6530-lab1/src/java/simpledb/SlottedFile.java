@@ -0,0 +1,41 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedFile is a HeapFile whose pages are {@link SlottedPage}s, which
+ * store each tuple in only as many bytes as it needs.  It is meant for
+ * tables with {@link Type#VARCHAR_TYPE} fields, whose values are mostly
+ * much shorter than the maximum; everything else, from page I/O to the
+ * free space map and bulk loads, works as for HeapFile.
+ *
+ * @see SlottedPage
+ */
+public class SlottedFile extends HeapFile {
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a slotted file backed by the specified file, optionally
+     * reading its pages through a memory mapping.
+     */
+    public SlottedFile(File f, TupleDesc td, boolean mapped) {
+        super(f, td, mapped);
+    }
+
+    @Override
+    protected TuplePage newPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new SlottedPage(pid, data);
+    }
+
+    @Override
+    protected byte[] emptyPageData() {
+        return SlottedPage.createEmptyPageData();
+    }
+}
@@ -0,0 +1,451 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedPage is a page of a {@link SlottedFile}.  Unlike HeapPage, whose
+ * slots all have the size of the largest possible tuple, it stores each
+ * tuple in only as many bytes as its fields serialize to, so that tables
+ * of short {@link Type#VARCHAR_TYPE} strings fit many more tuples per page.
+ * <p>
+ * The page starts with a header of two unsigned shorts: the number of
+ * entries in the slot directory, and the offset of the start of the record
+ * data, or 0 if there is none.  The slot directory follows, one entry per
+ * slot of two unsigned shorts, the offset and the length of the slot's
+ * record; the offset of an empty slot is 0.  Records grow down from the end
+ * of the page towards the directory, and are the tuple's fields serialized
+ * back to back.  An all-zero page is empty, and page sizes of up to 64 KB
+ * are supported.
+ * <p>
+ * A deleted record leaves a hole, and its slot is reused by a later insert,
+ * so the RecordIds of the other tuples on the page do not change; the holes
+ * are compacted away when an insert does not fit in between the directory
+ * and the records.
+ * <p>
+ * Like HeapPage, a page read from a byte array keeps the array until its
+ * first write, and tuples are decoded only when they are asked for; unlike
+ * HeapPage, decoded tuples are not kept.  Writes move records and rewrite
+ * slots in place, so tuples are decoded holding the page's lock.
+ *
+ * @see SlottedFile
+ * @see HeapPage
+ */
+public class SlottedPage implements TuplePage {
+
+    static final int HEADER_SIZE = 4;
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private final int pageSize;
+
+    /**
+     * The page's bytes: until the first write, the bytes the page was read
+     * from, which are never written to.  Read with absolute gets only.
+     */
+    private volatile ByteBuffer data;
+
+    // the following mirror the header and are guarded by this
+    private int numSlots;
+    private int dataStart;
+    /** The number of used slots and the bytes of their records. */
+    private int usedSlots;
+    private int usedBytes;
+
+    /*
+     * The before image, captured on the first write after it was set, as in
+     * HeapPage; guarded by oldDataLock.
+     */
+    byte[] oldData;
+    private boolean beforeImageIsCurrent = false;
+    private boolean changed = false;
+    private final Object oldDataLock = new Object();
+
+    private volatile TransactionId dirtier;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk.
+     *
+     * @see SlottedPage
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a SlottedPage from a buffer holding the page's bytes, starting
+     * at the buffer's position.  A buffer that is not backed by an array,
+     * such as a view of a memory-mapped file, is copied; otherwise its
+     * contents must not change while the page is in use.
+     */
+    public SlottedPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = BufferPool.getPageSize();
+        if (pageSize > 1 << 16)
+            throw new IllegalArgumentException("slotted pages are at most 64 KB");
+        if (data.remaining() < pageSize)
+            throw new EOFException("page " + id.pageNumber() + " is truncated");
+        ByteBuffer page = data.slice();
+        page.limit(pageSize);
+        if (!page.hasArray()) {
+            // a mapped buffer changes under us once the page is flushed
+            byte[] copy = new byte[pageSize];
+            page.get(copy);
+            page = ByteBuffer.wrap(copy);
+        }
+        this.data = page.slice();
+
+        numSlots = this.data.getShort(0) & 0xffff;
+        dataStart = this.data.getShort(2) & 0xffff;
+        if (dataStart == 0)
+            dataStart = pageSize;
+        if (HEADER_SIZE + numSlots * SLOT_SIZE > dataStart)
+            throw new IOException("page " + id.pageNumber() + " has a bad slot directory");
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (offset(this.data, slot) != 0) {
+                usedSlots++;
+                usedBytes += length(this.data, slot);
+            }
+        }
+    }
+
+    private static int offset(ByteBuffer b, int slot) {
+        return b.getShort(HEADER_SIZE + slot * SLOT_SIZE) & 0xffff;
+    }
+
+    private static int length(ByteBuffer b, int slot) {
+        return b.getShort(HEADER_SIZE + slot * SLOT_SIZE + 2) & 0xffff;
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        data.putShort(HEADER_SIZE + slot * SLOT_SIZE, (short) offset);
+        data.putShort(HEADER_SIZE + slot * SLOT_SIZE + 2, (short) length);
+    }
+
+    private void writeHeader() {
+        data.putShort(0, (short) numSlots);
+        data.putShort(2, (short) (dataStart == pageSize ? 0 : dataStart));
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            synchronized (oldDataLock) {
+                if (beforeImageIsCurrent)
+                    return new SlottedPage(pid, getPageData());
+                if (oldData != null)
+                    return new SlottedPage(pid, oldData);
+            }
+            // never written: the data the page was read from is the image
+            return new SlottedPage(pid, data.duplicate());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            // the contents are captured before the next write, if any
+            if (changed) {
+                beforeImageIsCurrent = true;
+                changed = false;
+            }
+        }
+    }
+
+    /**
+     * Captures the before image, if it has not been captured yet, and makes
+     * the page's bytes its own, ahead of a change to this page.
+     */
+    private void beforeWrite() {
+        synchronized (oldDataLock) {
+            if (beforeImageIsCurrent) {
+                oldData = getPageData();
+                beforeImageIsCurrent = false;
+            } else if (oldData == null) {
+                oldData = getPageData();
+                data = ByteBuffer.wrap(oldData.clone());
+            }
+            changed = true;
+        }
+    }
+
+    /**
+     * Returns the tuple in a used slot, decoded from its record.
+     */
+    private Tuple tuple(ByteBuffer b, int slot) throws NoSuchElementException {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        int off = offset(b, slot);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                Type type = td.getFieldType(j);
+                t.setField(j, type.parse(b, off));
+                off += type.getLen(b, off);
+            }
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        return t;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Passing it to the SlottedPage constructor produces an identical page.
+     */
+    public byte[] getPageData() {
+        byte[] bytes = new byte[pageSize];
+        writePageData(ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    public void writePageData(ByteBuffer out) {
+        out.put(data.duplicate());
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** @return the number of bytes t is stored in, without its slot */
+    private int recordLength(Tuple t) {
+        int len = 0;
+        for (int j = 0; j < td.numFields(); j++)
+            len += td.getFieldType(j).getLen(t.getField(j));
+        return len;
+    }
+
+    /**
+     * @return true if a record of len bytes fits on the page, after
+     *   compacting it if necessary
+     */
+    private boolean fits(int len) {
+        int directory = SLOT_SIZE * (usedSlots < numSlots ? numSlots : numSlots + 1);
+        return HEADER_SIZE + directory + usedBytes + len <= pageSize;
+    }
+
+    public synchronized boolean hasRoomFor(Tuple t) {
+        return fits(recordLength(t));
+    }
+
+    /** Returns the number of bytes not used by the header, the slot
+        directory or records. */
+    public synchronized int getFreeSpace() {
+        return pageSize - HEADER_SIZE - SLOT_SIZE * numSlots - usedBytes;
+    }
+
+    /** Returns the number of bytes on an empty page available for tuples. */
+    public int getCapacity() {
+        return pageSize - HEADER_SIZE;
+    }
+
+    /**
+     * Returns the number of tuples on this page.
+     */
+    public synchronized int getNumTuples() {
+        return usedSlots;
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot or a
+     * new one;  the tuple is updated to reflect that it is now stored on
+     * this page.
+     * @throws DbException if the page has no room for the tuple, or the
+     *         tuple or its fields do not match the page's TupleDesc.
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tuple does not match the page's TupleDesc");
+        for (int j = 0; j < td.numFields(); j++) {
+            if (t.getField(j) == null || t.getField(j).getType() != td.getFieldType(j))
+                throw new DbException("field " + j + " is not a " + td.getFieldType(j));
+        }
+        int len = recordLength(t);
+        if (!fits(len))
+            throw new DbException("page " + pid.pageNumber() + " is full");
+        beforeWrite();
+
+        int slot = 0;
+        if (usedSlots < numSlots) {
+            while (offset(data, slot) != 0)
+                slot++;
+        } else {
+            slot = numSlots;
+        }
+        int directoryEnd = HEADER_SIZE + SLOT_SIZE * Math.max(numSlots, slot + 1);
+        if (dataStart - directoryEnd < len)
+            compact();
+
+        dataStart -= len;
+        ByteBuffer out = data.duplicate();
+        out.position(dataStart);
+        for (int j = 0; j < td.numFields(); j++)
+            t.getField(j).serialize(out);
+        setSlot(slot, dataStart, len);
+        numSlots = Math.max(numSlots, slot + 1);
+        usedSlots++;
+        usedBytes += len;
+        writeHeader();
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Moves the records to the end of the page, closing the holes left by
+     * deleted records; slots keep their numbers.
+     */
+    private void compact() {
+        byte[] bytes = data.array();
+        int off = data.arrayOffset();
+        byte[] moved = new byte[pageSize];
+        int start = pageSize;
+        for (int slot = 0; slot < numSlots; slot++) {
+            int recOffset = offset(data, slot);
+            if (recOffset == 0)
+                continue;
+            int len = length(data, slot);
+            start -= len;
+            System.arraycopy(bytes, off + recOffset, moved, start, len);
+            setSlot(slot, start, len);
+        }
+        System.arraycopy(moved, start, bytes, off + start, pageSize - start);
+        Arrays.fill(bytes, off + dataStart, off + start, (byte) 0);
+        dataStart = start;
+    }
+
+    /**
+     * Delete the specified tuple from the page;  the tuple is updated to
+     * reflect that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on page " + pid.pageNumber());
+        int slot = rid.tupleno();
+        if (slot < 0 || slot >= numSlots || offset(data, slot) == 0)
+            throw new DbException("slot " + slot + " is already empty");
+        beforeWrite();
+        usedSlots--;
+        usedBytes -= length(data, slot);
+        setSlot(slot, 0, 0);
+        // drop empty slots from the end of the directory
+        while (numSlots > 0 && offset(data, numSlots - 1) == 0)
+            numSlots--;
+        if (usedSlots == 0)
+            dataStart = pageSize;
+        writeHeader();
+        t.setRecordId(null);
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty)
+            beforeWrite();
+        dirtier = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /**
+     * Adds decoded tuples, as slotted pages have no views: views is
+     * ignored.  Records have no fixed field offsets, so filters are
+     * evaluated on each decoded tuple.
+     */
+    public int nextBatch(int slot, TupleBatch batch, boolean views,
+            Predicate[] filters) {
+        return next(slot, batch, null, filters);
+    }
+
+    /** Adds decoded tuples, as nextBatch does. */
+    public int nextColumns(int slot, ColumnBatch batch, Predicate[] filters) {
+        return next(slot, null, batch, filters);
+    }
+
+    /**
+     * Adds the tuples from slot on that pass filters to tuples, or if it is
+     * null to columns, until the batch is full.
+     */
+    private synchronized int next(int slot, TupleBatch tuples,
+            ColumnBatch columns, Predicate[] filters) {
+        for (; slot < numSlots; slot++) {
+            if (tuples != null ? tuples.isFull() : columns.isFull())
+                break;
+            if (offset(data, slot) != 0) {
+                Tuple t = tuple(data, slot);
+                if (!Predicate.filter(filters, t))
+                    continue;
+                if (tuples != null)
+                    tuples.add(t);
+                else
+                    columns.add(t);
+            }
+        }
+        slot = nextUsedSlot(slot);
+        return (slot < numSlots) ? slot : -1;
+    }
+
+    /** @return the first used slot from slot on, or numSlots if none */
+    private int nextUsedSlot(int slot) {
+        while (slot < numSlots && offset(data, slot) == 0)
+            slot++;
+        return slot;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page, decoding each one as
+     *   it is returned (calling remove on this iterator throws an
+     *   UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int slot = 0;
+
+            public boolean hasNext() {
+                synchronized (SlottedPage.this) {
+                    slot = nextUsedSlot(slot);
+                    return slot < numSlots;
+                }
+            }
+
+            public Tuple next() {
+                synchronized (SlottedPage.this) {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    return tuple(data, slot++);
+                }
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,173 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A temporary HeapFile that an operator spills tuples to when they do not
+ * fit in memory.  Tuples are appended as HeapFileEncoder writes them: laid
+ * out on HeapPages in a buffer, with the slots of each page filled in order,
+ * and written to disk many pages at a time, bypassing the BufferPool, the
+ * log, and fsync.  Once {@link #finish} is called the file is a table in
+ * the Catalog, read through the BufferPool like any other, until
+ * {@link #delete} drops it.
+ */
+class SpillFile {
+
+    /** Pages written to disk at a time. */
+    private static final int WRITE_PAGES = 8;
+
+    private final TupleDesc td;
+    private final File f;
+    private FileOutputStream os;
+    private FileChannel out;
+    private final int tupleSize;
+    private final int numSlots;
+    private final int headerSize;
+    /** The page being filled, and those to write; dropped once finished. */
+    private ByteBuffer page;
+    private ByteBuffer pages;
+    /** Tuples on the page being filled. */
+    private int slots = 0;
+    private int count = 0;
+    private int numPages = 0;
+    private HeapFile file;
+
+    /**
+     * Creates an empty spill file for tuples of schema td.
+     */
+    SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            this.f = File.createTempFile("spill", ".dat");
+            f.deleteOnExit();
+            os = new FileOutputStream(f);
+        } catch (IOException e) {
+            throw failed("couldn't create spill file", e);
+        }
+        out = os.getChannel();
+        int pageSize = BufferPool.getPageSize();
+        tupleSize = td.getSize();
+        // as HeapPage lays out its slots
+        numSlots = (pageSize * 8) / (tupleSize * 8 + 1);
+        headerSize = (numSlots + 7) / 8;
+        page = ByteBuffer.allocate(pageSize);
+        page.position(headerSize);
+        pages = ByteBuffer.allocateDirect(pageSize * WRITE_PAGES);
+    }
+
+    /**
+     * Appends t, which must be of this file's schema.
+     * @throws IllegalStateException if the file has been finished
+     */
+    void append(Tuple t) throws DbException {
+        if (out == null)
+            throw new IllegalStateException("spill file is finished");
+        if (t instanceof RowTuple) {
+            ((RowTuple) t).serialize(page);
+        } else {
+            for (int i = 0; i < td.numFields(); i++) {
+                int end = page.position() + td.getFieldType(i).getLen();
+                t.getField(i).serialize(page);
+                while (page.position() < end)
+                    page.put((byte) 0);
+            }
+        }
+        count++;
+        if (++slots == numSlots)
+            finishPage();
+    }
+
+    /** @return the number of tuples appended */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Writes the tuples appended so far to disk and adds the file to the
+     * Catalog.  No more tuples can be appended.
+     *
+     * @return the file, to be scanned as part of transaction the spilling
+     *   operator runs in
+     */
+    HeapFile finish() throws DbException {
+        if (file != null)
+            return file;
+        if (slots > 0)
+            finishPage();
+        try {
+            flushPages();
+            close();
+        } catch (IOException e) {
+            throw failed("couldn't write " + f, e);
+        }
+        page = pages = null;
+        file = new HeapFile(f, td);
+        Database.getCatalog().addTable(file, "spill:" + f.getName());
+        return file;
+    }
+
+    /**
+     * Drops the file from the Catalog and the BufferPool and deletes it.
+     */
+    void delete() {
+        if (file != null) {
+            for (int i = 0; i < numPages; i++)
+                Database.getBufferPool().discardPage(new HeapPageId(file.getId(), i));
+            Database.getCatalog().removeTable(file.getId());
+        }
+        try {
+            close();
+        } catch (IOException e) {
+            // the file is deleted anyway
+        }
+        f.delete();
+        HeapFile.freeSpaceMapFile(f).delete();
+    }
+
+    private static DbException failed(String message, IOException cause) {
+        DbException e = new DbException(message + ": " + cause.getMessage());
+        e.initCause(cause);
+        return e;
+    }
+
+    private void close() throws IOException {
+        if (os != null)
+            os.close();
+        os = null;
+        out = null;
+    }
+
+    /** Sets the header bits of the page, zero pads it and queues it to write. */
+    private void finishPage() throws DbException {
+        for (int i = 0; i < headerSize; i++) {
+            int bits = Math.max(0, Math.min(8, slots - 8 * i));
+            page.put(i, (byte) ((1 << bits) - 1));
+        }
+        Arrays.fill(page.array(), page.position(), page.capacity(), (byte) 0);
+        page.clear();
+        if (!pages.hasRemaining()) {
+            try {
+                flushPages();
+            } catch (IOException e) {
+                throw failed("couldn't write " + f, e);
+            }
+        }
+        pages.put(page);
+        page.clear();
+        page.position(headerSize);
+        slots = 0;
+        numPages++;
+    }
+
+    private void flushPages() throws IOException {
+        pages.flip();
+        while (pages.hasRemaining())
+            out.write(pages);
+        pages.clear();
+    }
+}
@@ -8,11 +8,23 @@ import java.util.Iterator;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * The typed accessors {@link #getInt} and {@link #getString} read a field's
+ * value without going through its Field; {@link RowTuple} stores its
+ * fields as bytes, and only allocates a Field when asked for one.
+ * <p>
+ * A tuple returned by a scan over {@link TupleView}s is only valid until
+ * the scan's next tuple; a caller that keeps it must keep {@link #copy}
+ * instead.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    private TupleDesc td;
+    private Field[] fields;
+    private RecordId rid;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -21,15 +33,24 @@ public class Tuple implements Serializable {
      *            instance with at least one field.
      */
     public Tuple(TupleDesc td) {
-        // some code goes here
+        this.td = td;
+        this.fields = new Field[td.numFields()];
+    }
+
+    /**
+     * For subclasses that keep their fields themselves, and override
+     * setField and getField.
+     */
+    Tuple(TupleDesc td, boolean boxed) {
+        this.td = td;
+        this.fields = boxed ? new Field[td.numFields()] : null;
     }
 
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
     public TupleDesc getTupleDesc() {
-        // some code goes here
-        return null;
+        return td;
     }
 
     /**
@@ -37,8 +58,7 @@ public class Tuple implements Serializable {
      *         be null.
      */
     public RecordId getRecordId() {
-        // some code goes here
-        return null;
+        return rid;
     }
 
     /**
@@ -48,7 +68,7 @@ public class Tuple implements Serializable {
      *            the new RecordId for this tuple.
      */
     public void setRecordId(RecordId rid) {
-        // some code goes here
+        this.rid = rid;
     }
 
     /**
@@ -60,7 +80,7 @@ public class Tuple implements Serializable {
      *            new value for the field.
      */
     public void setField(int i, Field f) {
-        // some code goes here
+        fields[i] = f;
     }
 
     /**
@@ -70,8 +90,35 @@ public class Tuple implements Serializable {
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
-        // some code goes here
-        return null;
+        return fields[i];
+    }
+
+    /**
+     * @return a tuple with the same TupleDesc, field values and RecordId as
+     *   this one, that stays valid whatever happens to this one
+     */
+    public Tuple copy() {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++)
+            t.setField(i, getField(i));
+        t.setRecordId(getRecordId());
+        return t;
+    }
+
+    /**
+     * @return the value of the ith field, an int field.
+     * @throws ClassCastException if the field is not an int
+     */
+    public int getInt(int i) {
+        return ((IntField) getField(i)).getValue();
+    }
+
+    /**
+     * @return the value of the ith field, a string or varchar field.
+     * @throws ClassCastException if the field is not a string
+     */
+    public String getString(int i) {
+        return ((StringField) getField(i)).getValue();
     }
 
     /**
@@ -83,8 +130,13 @@ public class Tuple implements Serializable {
      * where \t is any whitespace (except a newline)
      */
     public String toString() {
-        // some code goes here
-        throw new UnsupportedOperationException("Implement this");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (i > 0)
+                sb.append('\t');
+            sb.append(getField(i));
+        }
+        return sb.toString();
     }
 
     /**
@@ -93,8 +145,10 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
-        // some code goes here
-        return null;
+        Field[] all = new Field[td.numFields()];
+        for (int i = 0; i < all.length; i++)
+            all[i] = getField(i);
+        return Arrays.asList(all).iterator();
     }
 
     /**
@@ -102,6 +156,8 @@ public class Tuple implements Serializable {
      * */
     public void resetTupleDesc(TupleDesc td)
     {
-        // some code goes here
+        this.td = td;
+        if (fields != null)
+            this.fields = Arrays.copyOf(fields, td.numFields());
     }
 }
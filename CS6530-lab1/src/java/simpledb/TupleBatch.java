@@ -0,0 +1,93 @@
+package simpledb;
+
+/**
+ * A batch of tuples, filled by {@link DbIterator#nextBatch} and
+ * {@link DbFileIterator#nextBatch} so that a consumer can loop over many
+ * tuples per call into the iterator.  A batch is meant to be reused from
+ * call to call: filling it allocates nothing once it has been filled once.
+ * <p>
+ * A batch may hold {@link TupleView}s, which the batch keeps and moves to
+ * other tuples when it is filled again, so tuples from a batch are only
+ * valid until the batch is next filled; use {@link Tuple#copy} to keep
+ * one.
+ */
+public class TupleBatch {
+
+    /** The number of tuples a batch holds unless told otherwise. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final Tuple[] tuples;
+    private int size = 0;
+    /** Views for each position, created on first use. */
+    private TupleView[] views;
+
+    /**
+     * Creates an empty batch of {@link #DEFAULT_CAPACITY} tuples.
+     */
+    public TupleBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch of up to capacity tuples.
+     */
+    public TupleBatch(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("a batch needs room for a tuple");
+        this.tuples = new Tuple[capacity];
+    }
+
+    /** @return the number of tuples in the batch */
+    public int size() {
+        return size;
+    }
+
+    /** @return the number of tuples the batch can hold */
+    public int capacity() {
+        return tuples.length;
+    }
+
+    /** @return true if the batch holds capacity() tuples */
+    public boolean isFull() {
+        return size == tuples.length;
+    }
+
+    /**
+     * @return the ith tuple of the batch
+     * @throws IndexOutOfBoundsException if i is not less than size()
+     */
+    public Tuple get(int i) {
+        if (i >= size)
+            throw new IndexOutOfBoundsException("tuple " + i + " of " + size);
+        return tuples[i];
+    }
+
+    /**
+     * Adds t to the end of the batch.
+     * @throws IllegalStateException if the batch is full
+     */
+    public void add(Tuple t) {
+        if (size == tuples.length)
+            throw new IllegalStateException("batch is full");
+        tuples[size++] = t;
+    }
+
+    /**
+     * Adds the batch's view for the next position, for the caller to point
+     * at a tuple of the given schema.
+     */
+    TupleView addView(TupleDesc td) {
+        if (views == null)
+            views = new TupleView[tuples.length];
+        TupleView v = views[size];
+        if (v == null || v.getTupleDesc() != td)
+            v = views[size] = new TupleView(td);
+        add(v);
+        return v;
+    }
+
+    /** Empties the batch. */
+    public void clear() {
+        size = 0;
+    }
+}
@@ -41,12 +41,16 @@ public class TupleDesc implements Serializable {
      *        that are included in this TupleDesc
      * */
     public Iterator<TDItem> iterator() {
-        // some code goes here
-        return null;
+        return Arrays.asList(items).iterator();
     }
 
     private static final long serialVersionUID = 1L;
 
+    private final TDItem[] items;
+    private final int size;
+    /** Offset of each field within a tuple of getSize() bytes. */
+    private final int[] offsets;
+
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
      * specified types, with associated named fields.
@@ -59,7 +63,28 @@ public class TupleDesc implements Serializable {
      *            be null.
      */
     public TupleDesc(Type[] typeAr, String[] fieldAr) {
-        // some code goes here
+        if (typeAr == null || typeAr.length == 0)
+            throw new IllegalArgumentException("a TupleDesc needs at least one field");
+        items = new TDItem[typeAr.length];
+        offsets = new int[typeAr.length];
+        int sz = 0;
+        for (int i = 0; i < typeAr.length; i++) {
+            items[i] = new TDItem(typeAr[i], fieldAr == null ? null : fieldAr[i]);
+            offsets[i] = sz;
+            sz += typeAr[i].getLen();
+        }
+        size = sz;
+    }
+
+    private TupleDesc(TDItem[] items) {
+        this.items = items;
+        this.offsets = new int[items.length];
+        int sz = 0;
+        for (int i = 0; i < items.length; i++) {
+            offsets[i] = sz;
+            sz += items[i].fieldType.getLen();
+        }
+        size = sz;
     }
 
     /**
@@ -71,15 +96,14 @@ public class TupleDesc implements Serializable {
      *            TupleDesc. It must contain at least one entry.
      */
     public TupleDesc(Type[] typeAr) {
-        // some code goes here
+        this(typeAr, null);
     }
 
     /**
      * @return the number of fields in this TupleDesc
      */
     public int numFields() {
-        // some code goes here
-        return 0;
+        return items.length;
     }
 
     /**
@@ -92,8 +116,7 @@ public class TupleDesc implements Serializable {
      *             if i is not a valid field reference.
      */
     public String getFieldName(int i) throws NoSuchElementException {
-        // some code goes here
-        return null;
+        return getItem(i).fieldName;
     }
 
     /**
@@ -107,8 +130,13 @@ public class TupleDesc implements Serializable {
      *             if i is not a valid field reference.
      */
     public Type getFieldType(int i) throws NoSuchElementException {
-        // some code goes here
-        return null;
+        return getItem(i).fieldType;
+    }
+
+    private TDItem getItem(int i) throws NoSuchElementException {
+        if (i < 0 || i >= items.length)
+            throw new NoSuchElementException("no field " + i);
+        return items[i];
     }
 
     /**
@@ -121,8 +149,13 @@ public class TupleDesc implements Serializable {
      *             if no field with a matching name is found.
      */
     public int fieldNameToIndex(String name) throws NoSuchElementException {
-        // some code goes here
-        return 0;
+        if (name != null) {
+            for (int i = 0; i < items.length; i++) {
+                if (name.equals(items[i].fieldName))
+                    return i;
+            }
+        }
+        throw new NoSuchElementException("no field named " + name);
     }
 
     /**
@@ -130,8 +163,20 @@ public class TupleDesc implements Serializable {
      *         Note that tuples from a given TupleDesc are of a fixed size.
      */
     public int getSize() {
-        // some code goes here
-        return 0;
+        return size;
+    }
+
+    /**
+     * Gets the offset of the ith field within a tuple of {@link #getSize}
+     * bytes, where each field takes {@link Type#getLen()} bytes, as on a
+     * HeapPage.
+     *
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getOffset(int i) throws NoSuchElementException {
+        getItem(i);
+        return offsets[i];
     }
 
     /**
@@ -145,8 +190,10 @@ public class TupleDesc implements Serializable {
      * @return the new TupleDesc
      */
     public static TupleDesc merge(TupleDesc td1, TupleDesc td2) {
-        // some code goes here
-        return null;
+        TDItem[] merged = new TDItem[td1.items.length + td2.items.length];
+        System.arraycopy(td1.items, 0, merged, 0, td1.items.length);
+        System.arraycopy(td2.items, 0, merged, td1.items.length, td2.items.length);
+        return new TupleDesc(merged);
     }
 
     /**
@@ -159,14 +206,25 @@ public class TupleDesc implements Serializable {
      * @return true if the object is equal to this TupleDesc.
      */
     public boolean equals(Object o) {
-        // some code goes here
-        return false;
+        if (this == o)
+            return true;
+        if (!(o instanceof TupleDesc))
+            return false;
+        TupleDesc other = (TupleDesc) o;
+        if (items.length != other.items.length)
+            return false;
+        for (int i = 0; i < items.length; i++) {
+            if (items[i].fieldType != other.items[i].fieldType)
+                return false;
+        }
+        return true;
     }
 
     public int hashCode() {
-        // If you want to use TupleDesc as keys for HashMap, implement this so
-        // that equal objects have equals hashCode() results
-        throw new UnsupportedOperationException("unimplemented");
+        int h = 1;
+        for (TDItem item : items)
+            h = 31 * h + item.fieldType.hashCode();
+        return h;
     }
 
     /**
@@ -177,7 +235,12 @@ public class TupleDesc implements Serializable {
      * @return String describing this descriptor.
      */
     public String toString() {
-        // some code goes here
-        return "";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < items.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(items[i].fieldType).append("(").append(items[i].fieldName).append(")");
+        }
+        return sb.toString();
     }
 }
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * A page of tuples of a HeapFile.  HeapFile reads, writes, inserts into and
+ * scans its pages through this interface, so that files with another page
+ * layout can reuse it.
+ *
+ * @see HeapPage
+ * @see SlottedPage
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * Adds the specified tuple to the page;  the tuple is updated to reflect
+     * that it is now stored on this page.
+     * @throws DbException if the page has no room for the tuple or the
+     *         tupledesc is mismatched.
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page;  the tuple is updated to
+     * reflect that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page.
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return an iterator over the tuples on this page (calling remove on
+     *   this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator();
+
+    /**
+     * Returns an iterator for read-only scans, which may return one
+     * flyweight {@link TupleView} over and over, moved to each tuple in
+     * turn; a tuple it returns is only valid until the next call to next().
+     * Pages that have no views return {@link #iterator}.
+     */
+    default Iterator<Tuple> viewIterator() {
+        return iterator();
+    }
+
+    /**
+     * Adds the tuples on this page to batch, from slot on in the order of
+     * {@link #iterator}, until the batch is full.  If views is true, the page
+     * may add views of its bytes from the batch's pool instead of decoded
+     * tuples, as {@link #viewIterator} returns.  Only tuples that pass all
+     * of filters are added; pages that can evaluate them on their bytes do
+     * so without decoding the tuples that fail.
+     *
+     * @param slot the slot to start from; 0 for the first
+     * @param filters predicates the tuples must pass, or null for none
+     * @return the slot to continue from, or -1 if all the page's tuples
+     *   from slot on have been added
+     */
+    public int nextBatch(int slot, TupleBatch batch, boolean views,
+            Predicate[] filters);
+
+    /**
+     * Adds the tuples on this page to the column vectors of batch, from slot
+     * on in the order of {@link #iterator}, until the batch is full.  Only
+     * tuples that pass all of filters are added, as for nextBatch.
+     *
+     * @param slot the slot to start from; 0 for the first
+     * @param filters predicates the tuples must pass, or null for none
+     * @return the slot to continue from, or -1 if all the page's tuples
+     *   from slot on have been added
+     */
+    public int nextColumns(int slot, ColumnBatch batch, Predicate[] filters);
+
+    /**
+     * @return true if {@link #insertTuple} has room for t on this page
+     */
+    public boolean hasRoomFor(Tuple t);
+
+    /**
+     * Returns the free space on this page, in the units of
+     * {@link #getCapacity}: slots for HeapPage, bytes for SlottedPage.
+     */
+    public int getFreeSpace();
+
+    /**
+     * Returns the free space on an empty page.
+     */
+    public int getCapacity();
+}
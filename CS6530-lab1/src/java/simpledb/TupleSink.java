@@ -0,0 +1,26 @@
+package simpledb;
+
+/**
+ * A TupleSink receives the batches of tuples a {@link Pipeline} produces:
+ * the sink a pipeline is run into, or the input of one of its stages.
+ *
+ * @see PipelineStage
+ * @see MorselScheduler
+ */
+public interface TupleSink {
+
+    /**
+     * Consumes the tuples of batch.  The caller clears and refills the batch
+     * once this returns, so sinks that keep tuples must keep them, not the
+     * batch.
+     */
+    public void consume(TupleBatch batch)
+        throws DbException, TransactionAbortedException;
+
+    /**
+     * Called when a morsel of the pipeline has been consumed.  Sinks that
+     * buffer tuples pass on what they hold.
+     */
+    default void flush() throws DbException, TransactionAbortedException {
+    }
+}
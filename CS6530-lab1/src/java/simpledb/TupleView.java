@@ -0,0 +1,71 @@
+package simpledb;
+
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
+
+/**
+ * A flyweight tuple: a read-only view of the bytes of one slot of a
+ * HeapPage, which a scan moves from slot to slot instead of materializing
+ * a Tuple per row.  Reading a view allocates nothing but what
+ * {@link #getField}, {@link #getString} and {@link #getRecordId} return.
+ * <p>
+ * A view is only valid until the iterator that returned it returns its
+ * next tuple; callers that keep a tuple must keep its {@link #copy}.
+ *
+ * @see HeapPage#viewIterator
+ */
+public class TupleView extends RowTuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private HeapPageId pid;
+    private int slot;
+
+    /**
+     * Creates a view of tuples of the specified schema, not yet pointing at
+     * a tuple.
+     */
+    TupleView(TupleDesc td) {
+        super(td, false);
+    }
+
+    /**
+     * Points this view at the tuple in a slot of a page.
+     *
+     * @param data the page's bytes
+     * @param off the offset of the tuple in data
+     */
+    void moveTo(ByteBuffer data, int off, HeapPageId pid, int slot) {
+        this.buf = data;
+        this.base = off;
+        this.pid = pid;
+        this.slot = slot;
+    }
+
+    /**
+     * @return a new RecordId for the slot the view points at
+     */
+    public RecordId getRecordId() {
+        return (pid == null) ? null : new RecordId(pid, slot);
+    }
+
+    /** @throws UnsupportedOperationException views are read-only */
+    public void setRecordId(RecordId rid) {
+        throw new UnsupportedOperationException("tuple views are read-only");
+    }
+
+    /** @throws UnsupportedOperationException views are read-only */
+    public void setField(int i, Field f) {
+        throw new UnsupportedOperationException("tuple views are read-only");
+    }
+
+    /** @throws UnsupportedOperationException views are read-only */
+    public void resetTupleDesc(TupleDesc td) {
+        throw new UnsupportedOperationException("tuple views are read-only");
+    }
+
+    /** Serializes a copy, which stays valid when the view moves on. */
+    private Object writeReplace() throws ObjectStreamException {
+        return copy();
+    }
+}
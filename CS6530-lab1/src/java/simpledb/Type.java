@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int off) {
+            return new IntField(buf.getInt(off));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +48,59 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int off) throws ParseException {
+            int strLen = buf.getInt(off);
+            if (strLen < 0 || strLen > STRING_LEN)
+                throw new ParseException("bad string length " + strLen, off);
+            byte bs[] = new byte[strLen];
+            for (int i = 0; i < strLen; i++)
+                bs[i] = buf.get(off + 4 + i);
+            return new StringField(new String(bs), STRING_LEN);
+        }
+    }, VARCHAR_TYPE() {
+        /** At most; a value is stored in 4 + its length bytes. */
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public int getLen(Field f) {
+            return 4 + ((StringField) f).getValue().length();
+        }
+
+        @Override
+        public int getLen(ByteBuffer buf, int off) {
+            return 4 + buf.getInt(off);
+        }
+
+        /** Reads the length and the string only, without padding. */
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readInt();
+                if (strLen < 0 || strLen > STRING_LEN)
+                    throw new ParseException("bad string length " + strLen, 0);
+                byte bs[] = new byte[strLen];
+                dis.readFully(bs);
+                return new VarcharField(new String(bs), STRING_LEN);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int off) throws ParseException {
+            int strLen = buf.getInt(off);
+            if (strLen < 0 || strLen > STRING_LEN)
+                throw new ParseException("bad string length " + strLen, off);
+            byte bs[] = new byte[strLen];
+            for (int i = 0; i < strLen; i++)
+                bs[i] = buf.get(off + 4 + i);
+            return new VarcharField(new String(bs), STRING_LEN);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -51,6 +110,22 @@ public enum Type implements Serializable {
    */
     public abstract int getLen();
 
+  /**
+   * @return the number of bytes f, a field of this type, is serialized to;
+   *   at most {@link #getLen()}.
+   */
+    public int getLen(Field f) {
+        return getLen();
+    }
+
+  /**
+   * @return the number of bytes of the serialized value of this type at
+   *   the absolute offset off in buf.
+   */
+    public int getLen(ByteBuffer buf, int off) {
+        return getLen();
+    }
+
   /**
    * @return a Field object of the same type as this object that has contents
    *   read from the specified DataInputStream.
@@ -60,4 +135,11 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from buf at the absolute offset off; buf's position is unchanged.
+   * @throws ParseException if the bytes at off are not a value of this type.
+   */
+    public abstract Field parse(ByteBuffer buf, int off) throws ParseException;
+
 }
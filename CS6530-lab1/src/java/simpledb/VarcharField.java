@@ -0,0 +1,53 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Instance of Field that stores a String of up to a maximum length in only
+ * as many bytes as it needs: serialized, it is the string's length followed
+ * by the string, without padding.  VarcharFields compare and hash like
+ * StringFields with the same value.
+ *
+ * @see SlottedPage
+ */
+public class VarcharField extends StringField {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param s
+	 *            The value of this field.
+	 * @param maxSize
+	 *            The maximum size of this string
+	 */
+	public VarcharField(String s, int maxSize) {
+		super(s, maxSize);
+	}
+
+	/**
+	 * Write this string to dos: four bytes of string length, then the
+	 * string.
+	 */
+	public void serialize(DataOutputStream dos) throws IOException {
+		dos.writeInt(getValue().length());
+		dos.writeBytes(getValue());
+	}
+
+	public void serialize(ByteBuffer buf) {
+		String s = getValue();
+		buf.putInt(s.length());
+		// like DataOutputStream.writeBytes, keeps the low byte of each char
+		for (int i = 0; i < s.length(); i++)
+			buf.put((byte) s.charAt(i));
+	}
+
+	/**
+	 * @return the Type for this Field
+	 */
+	public Type getType() {
+		return Type.VARCHAR_TYPE;
+	}
+}
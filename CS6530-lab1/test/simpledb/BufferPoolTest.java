@@ -0,0 +1,162 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+    /** Counts the number of readPage operations. */
+    static class InstrumentedHeapFile extends HeapFile {
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+
+        public int readCount = 0;
+    }
+
+    private TransactionId tid;
+
+    /** Creates and registers a single-column table of the given size. */
+    private InstrumentedHeapFile createTable(int pages) throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * pages,
+                1000, null, null);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        return table;
+    }
+
+    private void fetch(HeapFile table, int pgNo) throws Exception {
+        Database.getBufferPool().getPage(tid,
+                new HeapPageId(table.getId(), pgNo), Permissions.READ_ONLY);
+    }
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    /**
+     * Unit test for the CLOCK policy: a page that is hit again after the
+     * hand has cleared its reference bit gets a second chance.
+     */
+    @Test public void secondChance() throws Exception {
+        Database.resetBufferPool(3);
+        InstrumentedHeapFile table = createTable(5);
+
+        fetch(table, 0);
+        fetch(table, 1);
+        fetch(table, 2);
+        fetch(table, 3); // clears every bit, then evicts page 0
+        fetch(table, 1); // hit: page 1 is referenced again
+        fetch(table, 4); // skips page 1, evicts page 2
+        assertEquals(5, table.readCount);
+
+        fetch(table, 1);
+        assertEquals(5, table.readCount);
+        fetch(table, 2);
+        assertEquals(6, table.readCount);
+    }
+
+    /**
+     * Unit test for bulk-read rings: scanning a table larger than the
+     * buffer pool must not evict the pages other transactions use.
+     */
+    @Test public void scanDoesNotFlushPool() throws Exception {
+        Database.resetBufferPool(10);
+        InstrumentedHeapFile hot = createTable(2);
+        InstrumentedHeapFile big = createTable(30);
+
+        fetch(hot, 0);
+        fetch(hot, 1);
+        assertEquals(2, hot.readCount);
+
+        DbFileIterator it = big.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(992 * 30, count);
+        assertEquals(30, big.readCount);
+
+        fetch(hot, 0);
+        fetch(hot, 1);
+        assertEquals(2, hot.readCount);
+    }
+
+    /**
+     * Unit test for read-ahead: once a scan has read a few pages in order,
+     * the following pages are loaded before the scan asks for them, and
+     * no page is read twice.
+     */
+    @Test public void readAhead() throws Exception {
+        Database.resetBufferPool(50);
+        Database.getBufferPool().setReadAheadPages(8);
+        InstrumentedHeapFile table = createTable(20);
+
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        for (int i = 0; i < 992 * 2 + 1; i++)
+            it.next();
+        // page 2 completed a sequential run; pages 3 through 10 follow
+        long deadline = System.currentTimeMillis() + 10000;
+        while (table.readCount < 11 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(11, table.readCount);
+
+        int count = 992 * 2 + 1;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(992 * 20, count);
+        assertEquals(20, table.readCount);
+    }
+
+    /**
+     * Bulk-read rings and read-ahead together: a scan larger than the pool
+     * still reads every page once and leaves other pages resident.
+     */
+    @Test public void readAheadWithinRing() throws Exception {
+        Database.resetBufferPool(64);
+        InstrumentedHeapFile hot = createTable(2);
+        InstrumentedHeapFile big = createTable(100);
+
+        fetch(hot, 0);
+        fetch(hot, 1);
+
+        DbFileIterator it = big.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+        assertEquals(100, big.readCount);
+
+        fetch(hot, 0);
+        fetch(hot, 1);
+        assertEquals(2, hot.readCount);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
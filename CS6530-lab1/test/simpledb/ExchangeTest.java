@@ -0,0 +1,171 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ExchangeTest extends SimpleDbTestBase {
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> rows;
+    private HeapFile file;
+    private ExecutorService threads;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+        rows = new ArrayList<ArrayList<Integer>>();
+        file = SystemTestUtil.createRandomHeapFile(2, 10000, 1000, null, rows);
+        threads = Executors.newCachedThreadPool();
+    }
+
+    @After public void tearDown() throws Exception {
+        threads.shutdownNow();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return how many times each row occurs in rows */
+    private static Map<List<Integer>, Integer> counts(List<ArrayList<Integer>> rows) {
+        Map<List<Integer>, Integer> counts = new HashMap<List<Integer>, Integer>();
+        for (List<Integer> row : rows) {
+            Integer n = counts.get(row);
+            counts.put(row, (n == null) ? 1 : n + 1);
+        }
+        return counts;
+    }
+
+    /** Reads every consumer of e on a thread of its own. */
+    private List<List<ArrayList<Integer>>> readAll(Exchange e) throws Exception {
+        List<Future<List<ArrayList<Integer>>>> reads =
+                new ArrayList<Future<List<ArrayList<Integer>>>>();
+        for (int i = 0; i < e.numConsumers(); i++) {
+            final DbIterator it = e.getConsumer(i);
+            reads.add(threads.submit(new Callable<List<ArrayList<Integer>>>() {
+                public List<ArrayList<Integer>> call() throws Exception {
+                    it.open();
+                    try {
+                        return SystemTestUtil.readTuples(it);
+                    } finally {
+                        it.close();
+                    }
+                }
+            }));
+        }
+        List<List<ArrayList<Integer>>> read = new ArrayList<List<ArrayList<Integer>>>();
+        for (Future<List<ArrayList<Integer>>> f : reads)
+            read.add(f.get(30, TimeUnit.SECONDS));
+        return read;
+    }
+
+    /**
+     * Unit test for repartitioning: every tuple goes to exactly one
+     * consumer, and all tuples with the same key to the same one.
+     */
+    @Test public void repartition() throws Exception {
+        Exchange e = new Exchange(new Pipeline(tid, file), Exchange.Mode.REPARTITION, 3, 0);
+        List<List<ArrayList<Integer>>> read = readAll(e);
+        List<ArrayList<Integer>> all = new ArrayList<ArrayList<Integer>>();
+        Map<Integer, Integer> consumerOf = new HashMap<Integer, Integer>();
+        for (int i = 0; i < read.size(); i++) {
+            assertFalse(read.get(i).isEmpty());
+            for (ArrayList<Integer> row : read.get(i)) {
+                Integer was = consumerOf.put(row.get(0), i);
+                assertTrue(was == null || was == i);
+            }
+            all.addAll(read.get(i));
+        }
+        assertEquals(counts(rows), counts(all));
+    }
+
+    /**
+     * Unit test for broadcasting from DbIterators, and for gathering from
+     * the consumers of another exchange.
+     */
+    @Test public void broadcastAndGather() throws Exception {
+        List<DbIterator> scans = new ArrayList<DbIterator>();
+        scans.add(new SeqScan(tid, file.getId(), "a"));
+        scans.add(new SeqScan(tid, file.getId(), "b"));
+        Exchange e = new Exchange(scans, Exchange.Mode.BROADCAST, 2, 0);
+        List<ArrayList<Integer>> twice = new ArrayList<ArrayList<Integer>>(rows);
+        twice.addAll(rows);
+        for (List<ArrayList<Integer>> read : readAll(e))
+            assertEquals(counts(twice), counts(read));
+
+        Exchange split = new Exchange(new Pipeline(tid, file), Exchange.Mode.REPARTITION, 4, 1);
+        List<DbIterator> parts = new ArrayList<DbIterator>();
+        for (int i = 0; i < split.numConsumers(); i++)
+            parts.add(split.getConsumer(i));
+        Exchange gather = new Exchange(parts, Exchange.Mode.GATHER, 1, 0);
+        DbIterator gathered = gather.getConsumer(0);
+        gathered.open();
+        assertEquals(counts(rows), counts(SystemTestUtil.readTuples(gathered)));
+        gathered.close();
+
+        try {
+            gather.getConsumer(0).open();
+            fail("expected exception");
+        } catch (DbException expected) {
+        }
+    }
+
+    /**
+     * Unit test for closing a consumer early: the other consumers still
+     * read all of their tuples.
+     */
+    @Test public void closeEarly() throws Exception {
+        Exchange e = new Exchange(new Pipeline(tid, file), Exchange.Mode.BROADCAST, 2, 0);
+        DbIterator first = e.getConsumer(0);
+        first.open();
+        first.next();
+        first.close();
+        DbIterator second = e.getConsumer(1);
+        second.open();
+        assertEquals(counts(rows), counts(SystemTestUtil.readTuples(second)));
+        second.close();
+    }
+
+    /**
+     * Unit test for BatchQueue: batches put by several threads are each
+     * taken once by several others.
+     */
+    @Test public void batchQueue() throws Exception {
+        final BatchQueue q = new BatchQueue(3);
+        final int perProducer = 5000;
+        List<Future<Integer>> takers = new ArrayList<Future<Integer>>();
+        for (int p = 0; p < 3; p++) {
+            threads.submit(new Callable<Void>() {
+                public Void call() {
+                    for (int i = 0; i < perProducer; i++)
+                        assertTrue(q.put(new TupleBatch(1)));
+                    return null;
+                }
+            });
+            takers.add(threads.submit(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    for (int i = 0; i < perProducer; i++)
+                        assertNotNull(q.take());
+                    return perProducer;
+                }
+            }));
+        }
+        for (Future<Integer> f : takers)
+            assertEquals(perProducer, (int) f.get(30, TimeUnit.SECONDS));
+        assertNull(q.poll());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
@@ -0,0 +1,161 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashJoinTest extends SimpleDbTestBase {
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> leftRows;
+    private ArrayList<ArrayList<Integer>> rightRows;
+    private HeapFile left;
+    private HeapFile right;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+        leftRows = new ArrayList<ArrayList<Integer>>();
+        rightRows = new ArrayList<ArrayList<Integer>>();
+        left = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, leftRows);
+        right = SystemTestUtil.createRandomHeapFile(3, 4000, 1000, null, rightRows);
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return how many times each row occurs in rows */
+    private static Map<List<Integer>, Integer> counts(List<ArrayList<Integer>> rows) {
+        Map<List<Integer>, Integer> counts = new HashMap<List<Integer>, Integer>();
+        for (List<Integer> row : rows) {
+            Integer n = counts.get(row);
+            counts.put(row, (n == null) ? 1 : n + 1);
+        }
+        return counts;
+    }
+
+    /** @return the rows of the join of left and right, by nested loops */
+    private static List<ArrayList<Integer>> join(List<ArrayList<Integer>> left,
+            int leftField, List<ArrayList<Integer>> right, int rightField) {
+        List<ArrayList<Integer>> joined = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> l : left) {
+            for (ArrayList<Integer> r : right) {
+                if (l.get(leftField).equals(r.get(rightField))) {
+                    ArrayList<Integer> row = new ArrayList<Integer>(l);
+                    row.addAll(r);
+                    joined.add(row);
+                }
+            }
+        }
+        return joined;
+    }
+
+    /**
+     * Unit test for a join whose build side fits in memory.
+     */
+    @Test public void inMemory() throws Exception {
+        HashJoin join = new HashJoin(tid, new SeqScan(tid, left.getId(), "l"), 0,
+                new SeqScan(tid, right.getId(), "r"), 1);
+        assertEquals(5, join.getTupleDesc().numFields());
+        join.open();
+        assertEquals(counts(join(leftRows, 0, rightRows, 1)), counts(SystemTestUtil.readTuples(join)));
+        join.close();
+    }
+
+    /**
+     * Unit test for a join that spills to partitions, which are partitioned
+     * again as they are still too large, and for rewinding it.
+     */
+    @Test public void spilled() throws Exception {
+        int tables = SystemTestUtil.numTables();
+        // a budget of a few dozen tuples
+        HashJoin join = new HashJoin(tid, new SeqScan(tid, left.getId(), "l"), 1,
+                new SeqScan(tid, right.getId(), "r"), 2, 5000);
+        join.open();
+        assertTrue(join.hasNext());
+        // the partitions are tables until they have been joined
+        assertTrue(SystemTestUtil.numTables() > tables);
+        Map<List<Integer>, Integer> expected = counts(join(leftRows, 1, rightRows, 2));
+        assertEquals(expected, counts(SystemTestUtil.readTuples(join)));
+        assertEquals(tables, SystemTestUtil.numTables());
+        join.rewind();
+        assertEquals(expected, counts(SystemTestUtil.readTuples(join)));
+        join.close();
+        assertEquals(tables, SystemTestUtil.numTables());
+    }
+
+    /**
+     * Unit test for a join on string keys, including keys too common to
+     * split among partitions.
+     */
+    @Test public void stringKeys() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        List<Tuple> build = new ArrayList<Tuple>();
+        List<Tuple> probe = new ArrayList<Tuple>();
+        for (int i = 0; i < 500; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField((i % 5 == 0) ? "common" : "key" + (i % 50),
+                    Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            build.add(t);
+        }
+        for (int i = 0; i < 100; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField((i % 10 == 0) ? "common" : "key" + i,
+                    Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            probe.add(t);
+        }
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        for (Tuple b : build) {
+            for (Tuple p : probe) {
+                if (b.getField(0).equals(p.getField(0))) {
+                    String row = b.getField(1) + " " + p.getField(1);
+                    Integer n = expected.get(row);
+                    expected.put(row, (n == null) ? 1 : n + 1);
+                }
+            }
+        }
+
+        for (long budget : new long[] { HashJoin.DEFAULT_MEMORY_BUDGET, 4000 }) {
+            HashJoin join = new HashJoin(tid, new TupleIterator(td, build), 0,
+                    new TupleIterator(td, probe), 0, budget);
+            join.open();
+            Map<String, Integer> read = new HashMap<String, Integer>();
+            while (join.hasNext()) {
+                Tuple t = join.next();
+                assertEquals(t.getField(0), t.getField(2));
+                String row = t.getField(1) + " " + t.getField(3);
+                Integer n = read.get(row);
+                read.put(row, (n == null) ? 1 : n + 1);
+            }
+            join.close();
+            assertEquals(expected, read);
+        }
+    }
+
+    /**
+     * Unit test for joining an int key with a string one.
+     */
+    @Test(expected = IllegalArgumentException.class) public void mismatchedKeys() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        new HashJoin(tid, new SeqScan(tid, left.getId(), "l"), 0,
+                new TupleIterator(td, new ArrayList<Tuple>()), 0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashJoinTest.class);
+    }
+}
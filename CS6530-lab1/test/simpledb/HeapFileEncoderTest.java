@@ -0,0 +1,130 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileEncoderTest extends SimpleDbTestBase {
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("encoder", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static File writeText(String text) throws IOException {
+        File f = tempFile(".txt");
+        Writer w = new FileWriter(f);
+        w.write(text);
+        w.close();
+        return f;
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convertParallel(): with chunks much
+     * smaller than the input, the output is the same as convert()'s.
+     */
+    @Test public void parallelMatchesSequential() throws Exception {
+        Random r = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            sb.append(r.nextInt()).append(", s").append(r.nextInt(1000));
+            // blank lines and Windows line endings are skipped by both
+            sb.append(i % 100 == 0 ? "\r\n\n" : "\n");
+        }
+        File in = writeText(sb.toString());
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+
+        File sequential = tempFile(".dat");
+        HeapFileEncoder.convert(in, sequential, BufferPool.getPageSize(), 2, types, ',');
+        File parallel = tempFile(".dat");
+        HeapFileEncoder.convertParallel(in, parallel, BufferPool.getPageSize(), 2, types, ',', 4, 1000);
+
+        byte[] expected = Files.readAllBytes(sequential.toPath());
+        assertEquals(0, expected.length % BufferPool.getPageSize());
+        assertArrayEquals(expected, Files.readAllBytes(parallel.toPath()));
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convertParallel() on empty and
+     * malformed input.
+     */
+    @Test public void parallelEdgeCases() throws Exception {
+        File out = tempFile(".dat");
+        HeapFileEncoder.convertParallel(writeText(""), out, BufferPool.getPageSize(),
+                2, new Type[] { Type.INT_TYPE, Type.INT_TYPE }, ',', 2);
+        assertEquals(BufferPool.getPageSize(), out.length());
+
+        try {
+            HeapFileEncoder.convertParallel(writeText("1,2\n3,x\n"), out,
+                    BufferPool.getPageSize(), 2,
+                    new Type[] { Type.INT_TYPE, Type.INT_TYPE }, ',', 2);
+            fail("expected exception");
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Unit test for converting to a type the encoder does not write.
+     */
+    @Test(expected = IllegalArgumentException.class) public void unsupportedType()
+            throws Exception {
+        HeapFileEncoder.convert(writeText("1,abc\n"), tempFile(".dat"),
+                BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE }, ',');
+    }
+
+    /**
+     * Unit test for the byte-level parser of convert(): integers at the
+     * ends of the range, signs and padding, and strings longer than
+     * Type.STRING_LEN.
+     */
+    @Test public void parseFields() throws Exception {
+        StringBuilder longString = new StringBuilder();
+        for (int i = 0; i < Type.STRING_LEN + 10; i++)
+            longString.append((char) ('a' + i % 26));
+        File in = writeText(" -2147483648 | 2147483647 |" + longString + "\n"
+                + "+7|-0|  x y \n");
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE };
+        File out = tempFile(".dat");
+        HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 3, types, '|');
+
+        HeapFile f = new HeapFile(out, new TupleDesc(types));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        HeapPage page = (HeapPage) f.readPage(new HeapPageId(f.getId(), 0));
+        java.util.Iterator<Tuple> it = page.iterator();
+        Tuple t = it.next();
+        assertEquals(Integer.MIN_VALUE, ((IntField) t.getField(0)).getValue());
+        assertEquals(Integer.MAX_VALUE, ((IntField) t.getField(1)).getValue());
+        assertEquals(longString.substring(0, Type.STRING_LEN),
+                ((StringField) t.getField(2)).getValue());
+        t = it.next();
+        assertEquals(7, ((IntField) t.getField(0)).getValue());
+        assertEquals(0, ((IntField) t.getField(1)).getValue());
+        assertEquals("x y", ((StringField) t.getField(2)).getValue());
+        assertFalse(it.hasNext());
+
+        for (String bad : new String[] { "2147483648|0|s", "-|0|s", "1|2", "1|2|s|4" }) {
+            try {
+                HeapFileEncoder.convert(writeText(bad + "\n"), out,
+                        BufferPool.getPageSize(), 3, types, '|');
+                fail("expected exception for " + bad);
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
@@ -77,6 +77,49 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.writePage() and close(): a page written past
+     * the end grows the file, and the file stays readable after close().
+     */
+    @Test
+    public void writePageThenClose() throws Exception {
+        HeapPageId pid0 = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) hf.readPage(pid0);
+        hf.writePage(new HeapPage(new HeapPageId(hf.getId(), 1),
+                page.getPageData()));
+        assertEquals(2, hf.numPages());
+
+        hf.close();
+        HeapPage copy = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 1));
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+        assertEquals(484, copy.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for memory-mapped HeapFiles: pages read through the mapping
+     * match the file, also after the file grows past the mapping.
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        HeapPageId pid0 = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) mapped.readPage(pid0);
+        assertArrayEquals(((HeapPage) hf.readPage(pid0)).getPageData(),
+                page.getPageData());
+
+        HeapPageId pid1 = new HeapPageId(hf.getId(), 1);
+        try {
+            mapped.readPage(pid1);
+            fail("expected exception");
+        } catch (IllegalArgumentException e) {
+        }
+        mapped.writePage(new HeapPage(pid1, page.getPageData()));
+        HeapPage copy = (HeapPage) mapped.readPage(pid1);
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+        assertEquals(484, copy.getNumEmptySlots());
+        mapped.close();
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -101,6 +144,297 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile.viewIterator(): views are moved through the
+     * slots rather than created per tuple, tuples inserted since the page was read are
+     * returned as they are, and copies keep their values.
+     */
+    @Test
+    public void viewIterator() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile twoPageFile = SystemTestUtil.createRandomHeapFile(2, 600,
+                null, rows);
+        Tuple inserted = Utility.getHeapTuple(new int[] { -1, -2 });
+        Database.getBufferPool().insertTuple(tid, twoPageFile.getId(), inserted);
+        rows.add(new ArrayList<Integer>(Arrays.asList(-1, -2)));
+
+        DbFileIterator it = twoPageFile.viewIterator(tid);
+        it.open();
+        Set<Tuple> distinct = Collections.newSetFromMap(new IdentityHashMap<Tuple, Boolean>());
+        List<Tuple> copies = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            distinct.add(t);
+            copies.add(t.copy());
+            assertEquals(t.getInt(0), copies.get(copies.size() - 1).getInt(0));
+        }
+        it.close();
+        // views are reused from page to page
+        assertTrue(distinct.size() < 601 / 2);
+        assertTrue(distinct.contains(inserted));
+
+        assertEquals(601, copies.size());
+        SystemTestUtil.matchTuples(new TupleIterator(twoPageFile.getTupleDesc(), copies), rows);
+        assertEquals(new RecordId(new HeapPageId(twoPageFile.getId(), 1), 0),
+                copies.get(504).getRecordId());
+    }
+
+    /**
+     * Unit test for batch iteration: HeapFile and SeqScan batches, mixed
+     * with next(), return the same tuples as next() alone, and an
+     * AbstractBatchDbIterator serves next() from its batches.
+     */
+    @Test
+    public void nextBatch() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile threePageFile = SystemTestUtil.createRandomHeapFile(2, 1200,
+                null, rows);
+
+        DbFileIterator it = threePageFile.viewIterator(tid);
+        it.open();
+        List<Tuple> read = new ArrayList<Tuple>();
+        read.add(it.next().copy());
+        assertTrue(it.hasNext());
+        TupleBatch batch = new TupleBatch(700);
+        int batches = 0;
+        while (it.nextBatch(batch)) {
+            batches++;
+            for (int i = 0; i < batch.size(); i++)
+                read.add(batch.get(i).copy());
+        }
+        it.close();
+        // batches cross page boundaries
+        assertEquals(2, batches);
+        SystemTestUtil.matchTuples(new TupleIterator(threePageFile.getTupleDesc(), read), rows);
+
+        final SeqScan scan = new SeqScan(tid, threePageFile.getId(), "t");
+        DbIterator adapted = new AbstractBatchDbIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                scan.open();
+            }
+            protected boolean readBatch(TupleBatch batch)
+                    throws DbException, TransactionAbortedException {
+                return scan.nextBatch(batch);
+            }
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                scan.rewind();
+            }
+            public TupleDesc getTupleDesc() {
+                return scan.getTupleDesc();
+            }
+            public void close() {
+                super.close();
+                scan.close();
+            }
+        };
+        SystemTestUtil.matchTuples(adapted, rows);
+        adapted.close();
+    }
+
+    /**
+     * Unit test for column batches: a SeqScan fills the columns, and
+     * vectorized predicates select the rows the tuple predicates accept.
+     */
+    @Test
+    public void columnBatch() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile file = SystemTestUtil.createRandomHeapFile(2, 1200, null, rows);
+        Predicate gt = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000));
+        Predicate ne = new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(rows.get(5).get(1)));
+
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : rows) {
+            if (row.get(0) > 30000 && row.get(1) != rows.get(5).get(1).intValue())
+                expected.add(row);
+        }
+
+        SeqScan scan = new SeqScan(tid, file.getId(), "t");
+        scan.open();
+        ColumnBatch batch = new ColumnBatch(scan.getTupleDesc(), 500);
+        List<Tuple> read = new ArrayList<Tuple>();
+        int total = 0;
+        while (scan.nextColumns(batch)) {
+            total += batch.size();
+            assertEquals(batch.size(), batch.numSelected());
+            gt.filter(batch);
+            ne.filter(batch);
+            for (int i = 0; i < batch.numSelected(); i++) {
+                int row = batch.selected(i);
+                assertTrue(gt.filter(batch.toTuple(row)));
+                read.add(batch.toTuple(row));
+            }
+        }
+        scan.close();
+        assertEquals(1200, total);
+        SystemTestUtil.matchTuples(new TupleIterator(file.getTupleDesc(), read), expected);
+
+        // string columns, and rows added after a filter are selected
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        ColumnBatch strings = new ColumnBatch(td, 4);
+        String[] values = { "apple", "banana", "cherry" };
+        for (String s : values) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(s, Type.STRING_LEN));
+            strings.add(t);
+        }
+        assertEquals(2, new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+                new StringField("b", Type.STRING_LEN)).filter(strings));
+        assertEquals(1, new Predicate(0, Predicate.Op.LIKE,
+                new StringField("err", Type.STRING_LEN)).filter(strings));
+        assertEquals("cherry", strings.getString(0, strings.selected(0)));
+        Tuple t = new Tuple(td);
+        t.setField(0, new StringField("date", Type.STRING_LEN));
+        strings.add(t);
+        assertEquals(2, strings.numSelected());
+        assertEquals(3, strings.selected(1));
+        assertTrue(strings.isFull());
+    }
+
+    /**
+     * Unit test for predicates pushed into scans: the scan returns the rows
+     * that pass them, through next(), batches and column batches, and a
+     * predicate on page bytes agrees with the predicate on tuples.
+     */
+    @Test
+    public void pushDown() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile file = SystemTestUtil.createRandomHeapFile(3, 1200, null, rows);
+        Predicate lo = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(20000));
+        Predicate hi = new Predicate(2, Predicate.Op.LESS_THAN, new IntField(40000));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : rows) {
+            if (row.get(0) >= 20000 && row.get(2) < 40000)
+                expected.add(row);
+        }
+        assertTrue(expected.size() < rows.size());
+
+        SystemTestUtil.matchTuples(new SeqScan(tid, file.getId(), "t", false, lo, hi), expected);
+        SystemTestUtil.matchTuples(new SeqScan(tid, file.getId(), "t", true, lo, hi), expected);
+
+        SeqScan scan = new SeqScan(tid, file.getId(), "t", false, lo, hi);
+        scan.open();
+        ColumnBatch batch = new ColumnBatch(scan.getTupleDesc());
+        List<Tuple> read = new ArrayList<Tuple>();
+        while (scan.nextColumns(batch)) {
+            for (int i = 0; i < batch.numSelected(); i++)
+                read.add(batch.toTuple(batch.selected(i)));
+        }
+        scan.close();
+        SystemTestUtil.matchTuples(new TupleIterator(file.getTupleDesc(), read), expected);
+
+        // string fields are compared in place as Field.compare compares them
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        RowTuple t = new RowTuple(td);
+        t.setField(1, new StringField("pear", Type.STRING_LEN));
+        java.nio.ByteBuffer bytes = java.nio.ByteBuffer.allocate(td.getSize() + 8);
+        bytes.position(8);
+        t.serialize(bytes);
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (String s : new String[] { "pea", "pear", "pears", "peach", "z", "", "ear" }) {
+                Predicate p = new Predicate(1, op, new StringField(s, Type.STRING_LEN));
+                assertEquals(op + " " + s, p.filter(t), p.filter(bytes, 8, td));
+            }
+        }
+    }
+
+    /**
+     * Unit test for parallel scans: page ranges cover the file, and a
+     * SeqScan on several threads returns every tuple once, with pushed
+     * down predicates, after a rewind, and when closed early.
+     */
+    @Test
+    public void parallelScan() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile file = SystemTestUtil.createRandomHeapFile(2, 30000, null, rows);
+        int pages = file.numPages();
+        assertTrue(pages > 3 * MorselScheduler.MORSEL_PAGES);
+
+        List<Tuple> read = new ArrayList<Tuple>();
+        for (int from = 0; from < pages; from += 10) {
+            DbFileIterator it = file.iterator(tid, from, from + 10, null);
+            it.open();
+            while (it.hasNext())
+                read.add(it.next());
+            it.close();
+        }
+        assertEquals(counts(rows), counts(new TupleIterator(file.getTupleDesc(), read)));
+
+        SeqScan scan = new SeqScan(tid, file.getId(), "t");
+        scan.setParallelism(4);
+        assertEquals(counts(rows), counts(scan));
+        scan.open();
+        for (int i = 0; i < 100; i++)
+            scan.next();
+        scan.rewind();
+        scan.close();
+        assertEquals(counts(rows), counts(scan));
+
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(1000));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : rows) {
+            if (row.get(1) < 1000)
+                expected.add(row);
+        }
+        scan = new SeqScan(tid, file.getId(), "t", false, p);
+        scan.setParallelism(3);
+        assertEquals(counts(expected), counts(scan));
+    }
+
+    /**
+     * Unit test for resetting and reopening a parallel scan part way
+     * through: the workers of the scan it was reading stop, and the scan
+     * then reads to its end.
+     */
+    @Test
+    public void parallelScanReopened() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile file = SystemTestUtil.createRandomHeapFile(2, 30000, null, rows);
+        SeqScan scan = new SeqScan(tid, file.getId(), "t");
+        scan.setParallelism(4);
+        for (int i = 0; i < 10; i++) {
+            scan.open();
+            for (int j = 0; j < 100; j++)
+                scan.next();
+            scan.open();
+            for (int j = 0; j < 100; j++)
+                scan.next();
+            scan.reset(file.getId(), "t");
+            assertFalse(producerWaiting());
+        }
+        assertEquals(counts(rows), counts(scan));
+    }
+
+    /** @return true if a thread is waiting to hand a batch to a consumer */
+    private static boolean producerWaiting() {
+        for (StackTraceElement[] stack : Thread.getAllStackTraces().values()) {
+            for (StackTraceElement frame : stack) {
+                if (frame.getClassName().equals(BatchQueue.class.getName())
+                        && frame.getMethodName().equals("put"))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return how many times each row occurs in rows */
+    private static Map<List<Integer>, Integer> counts(List<ArrayList<Integer>> rows) {
+        Map<List<Integer>, Integer> counts = new HashMap<List<Integer>, Integer>();
+        for (List<Integer> row : rows) {
+            Integer n = counts.get(row);
+            counts.put(row, (n == null) ? 1 : n + 1);
+        }
+        return counts;
+    }
+
+    /** @return how many times each row occurs in the tuples of it */
+    private static Map<List<Integer>, Integer> counts(DbIterator it) throws Exception {
+        it.open();
+        List<ArrayList<Integer>> rows = SystemTestUtil.readTuples(it);
+        it.close();
+        return counts(rows);
+    }
+
     @Test
     public void testIteratorClose() throws Exception {
         // make more than 1 page. Previous closed iterator would start fetching
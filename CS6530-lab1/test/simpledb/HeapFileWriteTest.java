@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.nio.file.Files;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuple(): fills the first page, then
+     * appends a second one.
+     */
+    @Test public void insertTuple() throws Exception {
+        for (int i = 0; i < 504; ++i) {
+            ArrayList<Page> dirtied = empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+            assertEquals(1, dirtied.size());
+            assertEquals(0, dirtied.get(0).getId().pageNumber());
+            assertEquals(1, empty.numPages());
+        }
+
+        ArrayList<Page> dirtied = empty.insertTuple(tid, Utility.getHeapTuple(504, 2));
+        assertEquals(1, dirtied.get(0).getId().pageNumber());
+        assertEquals(2, empty.numPages());
+    }
+
+    /**
+     * Unit test for the free space map: a delete makes room on a full page
+     * that the next insert uses, and page writes record each page's free
+     * space in the side file.
+     */
+    @Test public void freeSpaceMap() throws Exception {
+        Tuple first = null;
+        for (int i = 0; i < 505; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            Database.getBufferPool().insertTuple(tid, empty.getId(), t);
+            if (i == 0)
+                first = t;
+        }
+        Database.getBufferPool().deleteTuple(tid, first);
+        Tuple t = Utility.getHeapTuple(1000, 2);
+        Database.getBufferPool().insertTuple(tid, empty.getId(), t);
+        assertEquals(new RecordId(new HeapPageId(empty.getId(), 0), 0), t.getRecordId());
+
+        Database.getBufferPool().flushAllPages();
+        byte[] levels = Files.readAllBytes(HeapFile.freeSpaceMapFile(empty.getFile()).toPath());
+        assertEquals(2, levels.length);
+        assertEquals(1, levels[0]);      // full
+        assertEquals(255, levels[1] & 0xff);  // room for 503 of 504
+
+        // a new HeapFile over the same data goes straight to page 1
+        Database.getBufferPool().transactionComplete(tid);
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        ArrayList<Page> dirtied = reopened.insertTuple(tid, Utility.getHeapTuple(2000, 2));
+        assertEquals(1, dirtied.get(0).getId().pageNumber());
+    }
+
+    /**
+     * Unit test for HeapFile.bulkLoad(): tuples are packed into new pages
+     * after the existing ones, and a failed load leaves the file as it was.
+     */
+    @Test public void bulkLoad() throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 1500; ++i)
+            tuples.add(Utility.getHeapTuple(i, 2));
+        assertEquals(1500, empty.bulkLoad(tid, tuples.iterator()));
+        assertEquals(4, empty.numPages());
+        assertEquals(new RecordId(new HeapPageId(empty.getId(), 1), 0),
+                tuples.get(0).getRecordId());
+        assertEquals(new RecordId(new HeapPageId(empty.getId(), 3), 491),
+                tuples.get(1499).getRecordId());
+
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            assertEquals(count, ((IntField) it.next().getField(0)).getValue());
+            count++;
+        }
+        it.close();
+        assertEquals(1500, count);
+
+        // page 0 is empty, so inserts still go there first
+        ArrayList<Page> dirtied = empty.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(0, dirtied.get(0).getId().pageNumber());
+
+        tuples.clear();
+        for (int i = 0; i < 600; ++i)
+            tuples.add(Utility.getHeapTuple(i, 2));
+        tuples.add(Utility.getHeapTuple(0, 3));
+        try {
+            empty.bulkLoad(tid, tuples.iterator());
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+        assertEquals(4, empty.numPages());
+        assertEquals(4L * BufferPool.getPageSize(), empty.getFile().length());
+    }
+
+    /**
+     * Unit test for reading a memory-mapped HeapFile during a bulkLoad():
+     * pages the load has written are not read until it is done.
+     */
+    @Test public void mappedBulkLoad() throws Exception {
+        final HeapFile mapped = new HeapFile(empty.getFile(), empty.getTupleDesc(), true);
+        final HeapPageId loading = new HeapPageId(mapped.getId(), 1);
+        final boolean[] hidden = new boolean[1];
+        Iterator<Tuple> tuples = new Iterator<Tuple>() {
+            private int i = 0;
+
+            public boolean hasNext() {
+                return i < 100000;
+            }
+
+            public Tuple next() {
+                if (!hidden[0] && mapped.getFile().length() > BufferPool.getPageSize()) {
+                    // a chunk of the load is on disk
+                    try {
+                        mapped.readPage(loading);
+                        fail("expected exception");
+                    } catch (IllegalArgumentException expected) {
+                        hidden[0] = true;
+                    }
+                }
+                return Utility.getHeapTuple(i++, 2);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        assertEquals(100000, mapped.bulkLoad(null, tuples));
+        assertTrue(hidden[0]);
+        HeapPage page = (HeapPage) mapped.readPage(loading);
+        assertEquals(0, page.iterator().next().getInt(0));
+        mapped.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileWriteTest.class);
+    }
+}
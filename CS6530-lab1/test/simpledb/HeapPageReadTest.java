@@ -10,9 +10,12 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import junit.framework.JUnit4TestAdapter;
 
 public class HeapPageReadTest extends SimpleDbTestBase {
@@ -120,6 +123,28 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getField(): single fields are read without
+     * decoding the tuple, and agree with the tuples the iterator decodes.
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int i = 0; i < 20; ++i)
+            assertEquals(EXAMPLE_VALUES[i][1], ((IntField) page.getField(i, 1)).getValue());
+
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        assertEquals(first.getField(0), page.getField(0, 0));
+        assertSame(first, page.iterator().next());
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+        try {
+            page.getField(20, 0);
+            fail("expected exception");
+        } catch (NoSuchElementException e) {
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,135 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HeapPageWriteTest extends SimpleDbTestBase {
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Unit test for HeapPage.insertTuple() and deleteTuple()
+     */
+    @Test public void insertAndDelete() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple t = Utility.getHeapTuple(new int[] { 7, 8 });
+        page.insertTuple(t);
+        assertEquals(new RecordId(pid, 20), t.getRecordId());
+        assertEquals(483, page.getNumEmptySlots());
+
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        assertNull(first.getRecordId());
+        assertFalse(page.isSlotUsed(0));
+        try {
+            page.deleteTuple(t);
+            page.deleteTuple(t);
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(484 + 1, copy.getNumEmptySlots());
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[1][0],
+                ((IntField) copy.iterator().next().getField(0)).getValue());
+    }
+
+    /**
+     * Unit test for before images: the image is the page as read until
+     * setBeforeImage(), then the page as it was at that call.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        TransactionId tid = new TransactionId();
+        page.insertTuple(Utility.getHeapTuple(new int[] { 7, 8 }));
+        page.markDirty(true, tid);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA,
+                page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+
+        page.insertTuple(Utility.getHeapTuple(new int[] { 9, 10 }));
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+        assertEquals(482, page.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for the slot bitmap: filling a page, then emptying all but
+     * a few slots on and around word boundaries.
+     */
+    @Test public void sparseSlots() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 504; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, i });
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        assertEquals(0, page.getNumEmptySlots());
+        try {
+            page.insertTuple(Utility.getHeapTuple(new int[] { 0, 0 }));
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+
+        Set<Integer> kept = new HashSet<Integer>(Arrays.asList(0, 63, 64, 130, 503));
+        for (Tuple t : inserted) {
+            if (!kept.contains(t.getRecordId().tupleno()))
+                page.deleteTuple(t);
+        }
+        assertEquals(504 - kept.size(), page.getNumEmptySlots());
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        List<Integer> slots = new ArrayList<Integer>();
+        Iterator<Tuple> it = copy.iterator();
+        while (it.hasNext())
+            slots.add(((IntField) it.next().getField(0)).getValue());
+        assertEquals(Arrays.asList(0, 63, 64, 130, 503), slots);
+
+        page.insertTuple(Utility.getHeapTuple(new int[] { 1, 1 }));
+        assertTrue(page.isSlotUsed(1));
+    }
+
+    /**
+     * Unit test for HeapPage.writePageData(): writes the same bytes as
+     * getPageData(), from the buffer's position, for partly decoded pages.
+     */
+    @Test public void writePageData() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        page.deleteTuple(it.next());
+        page.insertTuple(Utility.getHeapTuple(new int[] { 7, 8 }));
+
+        java.nio.ByteBuffer out = java.nio.ByteBuffer.allocate(BufferPool.getPageSize() + 3);
+        out.position(3);
+        page.writePageData(out);
+        assertFalse(out.hasRemaining());
+        byte[] written = Arrays.copyOfRange(out.array(), 3, out.capacity());
+        assertArrayEquals(page.getPageData(), written);
+        assertEquals(484, new HeapPage(pid, written).getNumEmptySlots());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapPageWriteTest.class);
+    }
+}
@@ -0,0 +1,155 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MorselSchedulerTest extends SimpleDbTestBase {
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> rows;
+    private HeapFile file;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+        rows = new ArrayList<ArrayList<Integer>>();
+        file = SystemTestUtil.createRandomHeapFile(2, 20000, null, rows);
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A sink that collects tuples from any number of threads. */
+    private static class Collector implements TupleSink {
+        final List<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        final AtomicInteger flushes = new AtomicInteger();
+
+        public synchronized void consume(TupleBatch batch) {
+            for (int i = 0; i < batch.size(); i++)
+                rows.add(SystemTestUtil.tupleToList(batch.get(i)));
+        }
+
+        public void flush() {
+            flushes.incrementAndGet();
+        }
+    }
+
+    private static List<ArrayList<Integer>> sorted(List<ArrayList<Integer>> rows) {
+        List<ArrayList<Integer>> sorted = new ArrayList<ArrayList<Integer>>(rows);
+        Collections.sort(sorted, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                for (int i = 0; i < a.size(); i++) {
+                    int c = a.get(i).compareTo(b.get(i));
+                    if (c != 0)
+                        return c;
+                }
+                return 0;
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Unit test for running a pipeline: a scan with a pushed down
+     * predicate and a filter stage returns each matching tuple once, and
+     * each morsel is flushed through the stages.
+     */
+    @Test public void runPipeline() throws Exception {
+        Predicate lo = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(10000));
+        Predicate hi = new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(50000));
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : rows) {
+            if (row.get(0) > 10000 && row.get(1) <= 50000)
+                expected.add(row);
+        }
+
+        Collector sink = new Collector();
+        MorselScheduler scheduler = new MorselScheduler(4);
+        scheduler.run(new Pipeline(tid, file, lo).then(PipelineStage.filter(hi)), sink);
+        assertEquals(sorted(expected), sorted(sink.rows));
+        int morsels = (file.numPages() + MorselScheduler.MORSEL_PAGES - 1)
+                / MorselScheduler.MORSEL_PAGES;
+        assertTrue(morsels > 1);
+        assertEquals(morsels, sink.flushes.get());
+    }
+
+    /**
+     * Unit test for limiting a scheduler's parallelism: however many
+     * schedulers there are, their pipelines run on the shared workers, at
+     * most as many at once as the scheduler's parallelism.
+     */
+    @Test public void cappedParallelism() throws Exception {
+        int ncpu = Runtime.getRuntime().availableProcessors();
+        for (int p = 1; p <= 4; p++) {
+            final Set<String> threads = new HashSet<String>();
+            final AtomicInteger running = new AtomicInteger();
+            final AtomicInteger mostRunning = new AtomicInteger();
+            MorselScheduler scheduler = new MorselScheduler(p);
+            assertEquals(Math.min(p, ncpu), scheduler.getParallelism());
+            scheduler.run(new Pipeline(tid, file), new TupleSink() {
+                public void consume(TupleBatch batch) {
+                    int n = running.incrementAndGet();
+                    synchronized (threads) {
+                        threads.add(Thread.currentThread().getName());
+                        mostRunning.set(Math.max(mostRunning.get(), n));
+                    }
+                    Thread.yield();
+                    running.decrementAndGet();
+                }
+            });
+            assertTrue(mostRunning.get() <= p);
+            for (String name : threads)
+                assertTrue(name, name.startsWith("simpledb-morsel-"));
+        }
+    }
+
+    /**
+     * Unit test for a scheduler without workers.
+     */
+    @Test(expected = IllegalArgumentException.class) public void noWorkers() {
+        new MorselScheduler(0);
+    }
+
+    /**
+     * Unit test for failing pipelines: the first error of a stage is
+     * rethrown to the thread waiting for the job.
+     */
+    @Test public void failedPipeline() throws Exception {
+        PipelineStage failing = new PipelineStage() {
+            public TupleSink open(TupleSink next) {
+                return new TupleSink() {
+                    public void consume(TupleBatch batch) throws DbException {
+                        throw new DbException("stage failed");
+                    }
+                };
+            }
+        };
+        MorselScheduler.Job job = MorselScheduler.getDefault().submit(
+                new Pipeline(tid, file).then(failing), new Collector());
+        try {
+            job.await();
+            fail("expected exception");
+        } catch (DbException e) {
+            assertEquals("stage failed", e.getMessage());
+        }
+        assertTrue(job.isDone());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MorselSchedulerTest.class);
+    }
+}
@@ -0,0 +1,120 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class OrderByTest extends SimpleDbTestBase {
+    private TransactionId tid;
+    private ArrayList<ArrayList<Integer>> rows;
+    private HeapFile file;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+        rows = new ArrayList<ArrayList<Integer>>();
+        file = SystemTestUtil.createRandomHeapFile(3, 6000, 100, null, rows);
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return rows sorted on field 1 ascending, then field 0 descending */
+    private static List<ArrayList<Integer>> sorted(List<ArrayList<Integer>> rows) {
+        List<ArrayList<Integer>> sorted = new ArrayList<ArrayList<Integer>>(rows);
+        Collections.sort(sorted, new Comparator<ArrayList<Integer>>() {
+            public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+                int c = a.get(1).compareTo(b.get(1));
+                return (c != 0) ? c : b.get(0).compareTo(a.get(0));
+            }
+        });
+        return sorted;
+    }
+
+    private OrderBy orderBy(long budget) {
+        return new OrderBy(tid, new int[] { 1, 0 }, new boolean[] { true, false },
+                new SeqScan(tid, file.getId(), "t"), budget);
+    }
+
+    /**
+     * Unit test for sorting in memory, on two fields; tuples equal on both
+     * stay in the order they were read in.
+     */
+    @Test public void inMemory() throws Exception {
+        OrderBy sort = orderBy(OrderBy.DEFAULT_MEMORY_BUDGET);
+        sort.open();
+        assertEquals(sorted(rows), SystemTestUtil.readTuples(sort));
+        sort.rewind();
+        assertEquals(sorted(rows), SystemTestUtil.readTuples(sort));
+        sort.close();
+    }
+
+    /**
+     * Unit test for an external sort, with more runs than are merged at
+     * once, and for rewinding it.
+     */
+    @Test public void spilled() throws Exception {
+        int tables = SystemTestUtil.numTables();
+        // a budget of a few dozen tuples, for over a hundred runs
+        OrderBy sort = orderBy(3000);
+        sort.open();
+        assertTrue(SystemTestUtil.numTables() > tables);
+        assertEquals(sorted(rows), SystemTestUtil.readTuples(sort));
+        sort.rewind();
+        assertEquals(sorted(rows), SystemTestUtil.readTuples(sort));
+        sort.close();
+        assertEquals(tables, SystemTestUtil.numTables());
+    }
+
+    /**
+     * Unit test for sorting strings descending.
+     */
+    @Test public void strings() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        Random r = new Random(1);
+        for (int i = 0; i < 300; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("s" + r.nextInt(1000), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            tuples.add(t);
+        }
+        OrderBy sort = new OrderBy(tid, new int[] { 0 }, new boolean[] { false },
+                new TupleIterator(td, tuples), 2000);
+        sort.open();
+        String last = null;
+        int n = 0;
+        while (sort.hasNext()) {
+            String s = sort.next().getString(0);
+            assertTrue(last == null || last.compareTo(s) >= 0);
+            last = s;
+            n++;
+        }
+        sort.close();
+        assertEquals(tuples.size(), n);
+    }
+
+    /**
+     * Unit test for sorting on a field the child does not have.
+     */
+    @Test(expected = IllegalArgumentException.class) public void badField() {
+        new OrderBy(tid, 3, true, new SeqScan(tid, file.getId(), "t"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
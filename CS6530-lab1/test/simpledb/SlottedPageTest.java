@@ -0,0 +1,228 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE });
+
+    private SlottedFile file;
+    private HeapPageId pid;
+
+    private static Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new VarcharField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static Map<Integer, String> contents(Iterator<Tuple> it) {
+        Map<Integer, String> m = new TreeMap<Integer, String>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            m.put(((IntField) t.getField(0)).getValue(),
+                    ((StringField) t.getField(1)).getValue());
+        }
+        return m;
+    }
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        HeapFile.freeSpaceMapFile(f).deleteOnExit();
+        file = new SlottedFile(f, TD);
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        pid = new HeapPageId(file.getId(), 0);
+    }
+
+    /**
+     * Unit test for SlottedPage inserts and deletes: short strings pack
+     * many times more tuples than fixed slots, deleted slots are reused,
+     * and holes are compacted when a longer record needs the room.
+     */
+    @Test public void insertDeleteCompact() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        Map<Integer, String> expected = new TreeMap<Integer, String>();
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "code" + n))) {
+            page.insertTuple(tuple(n, "code" + n));
+            expected.put(n, "code" + n);
+            n++;
+        }
+        // 4 + 4 + up to 7 bytes of string, and a 4 byte slot, per tuple
+        assertTrue(n > 200);
+        assertEquals(30, new HeapPage(pid, HeapPage.createEmptyPageData()).getCapacity());
+        try {
+            page.insertTuple(tuple(n, "code" + n));
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+
+        Iterator<Tuple> it = page.iterator();
+        int deleted = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            if (i % 2 == 0) {
+                page.deleteTuple(t);
+                expected.remove(i);
+                deleted++;
+            }
+        }
+        assertEquals(expected, contents(page.iterator()));
+
+        // longer than any hole: fits only once the page is compacted
+        String longer = "a much longer string than any single code";
+        Tuple t = tuple(-1, longer);
+        page.insertTuple(t);
+        assertEquals(new RecordId(pid, 0), t.getRecordId());
+        expected.put(-1, longer);
+        assertEquals(expected, contents(page.iterator()));
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        assertEquals(expected, contents(copy.iterator()));
+        assertEquals(page.getFreeSpace(), copy.getFreeSpace());
+        assertEquals(n - deleted + 1, copy.getNumTuples());
+
+        // a STRING_TYPE field does not belong in a VARCHAR column
+        Tuple wrong = new Tuple(TD);
+        wrong.setField(0, new IntField(0));
+        wrong.setField(1, new StringField("x", Type.STRING_LEN));
+        try {
+            copy.insertTuple(wrong);
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+    }
+
+    /**
+     * Unit test for scanning a SlottedPage while inserts compact it: every
+     * tuple a scan decodes is one that was inserted.
+     */
+    @Test public void scanWhileCompacting() throws Exception {
+        final SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        final List<Tuple> stored = new ArrayList<Tuple>();
+        for (int i = 1000; page.hasRoomFor(tuple(i, "code" + i)); i++) {
+            Tuple t = tuple(i, "code" + i);
+            page.insertTuple(t);
+            stored.add(t);
+        }
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread scanner = new Thread() {
+            public void run() {
+                try {
+                    TupleBatch batch = new TupleBatch(64);
+                    while (!done.get()) {
+                        for (int slot = 0; slot >= 0; ) {
+                            batch.clear();
+                            slot = page.nextBatch(slot, batch, false, null);
+                            for (int i = 0; i < batch.size(); i++)
+                                check(batch.get(i));
+                        }
+                        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); )
+                            check(it.next());
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+
+            private void check(Tuple t) {
+                int i = ((IntField) t.getField(0)).getValue();
+                assertEquals("code" + i, ((StringField) t.getField(1)).getValue());
+            }
+        };
+        scanner.start();
+        try {
+            // the page is full, so each insert into the hole a delete
+            // leaves compacts the page
+            Random r = new Random(7);
+            for (int n = 0; n < 20000 && failure.get() == null; n++) {
+                int victim = r.nextInt(stored.size());
+                page.deleteTuple(stored.get(victim));
+                int i = 1000 + r.nextInt(9000);
+                Tuple t = tuple(i, "code" + i);
+                page.insertTuple(t);
+                stored.set(victim, t);
+            }
+        } finally {
+            done.set(true);
+            scanner.join();
+        }
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+    }
+
+    /**
+     * Unit test for before images of SlottedPages, and for the page data a
+     * page was read from staying unchanged.
+     */
+    @Test public void beforeImage() throws Exception {
+        byte[] data = SlottedPage.createEmptyPageData();
+        SlottedPage page = new SlottedPage(pid, data);
+        page.insertTuple(tuple(1, "one"));
+        page.markDirty(true, new TransactionId());
+        assertArrayEquals(SlottedPage.createEmptyPageData(), data);
+        assertEquals(0, page.getBeforeImage().getNumTuples());
+
+        page.setBeforeImage();
+        page.insertTuple(tuple(2, "two"));
+        assertEquals(1, page.getBeforeImage().getNumTuples());
+        assertEquals(2, page.getNumTuples());
+    }
+
+    /**
+     * Unit test for SlottedFile: inserts through the BufferPool, bulk
+     * loads and scans.
+     */
+    @Test public void slottedFile() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 500; i++)
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(i, "v" + i));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2, file.numPages());
+
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 500; i < 2000; i++)
+            tuples.add(tuple(i, "v" + i));
+        tid = new TransactionId();
+        assertEquals(1500, file.bulkLoad(tid, tuples.iterator()));
+        // 16 or 17 bytes a tuple, slot included: 1500 tuples in 7 pages
+        assertEquals(9, file.numPages());
+
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        Set<Integer> seen = new HashSet<Integer>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals("v" + i, ((StringField) t.getField(1)).getValue());
+            seen.add(i);
+        }
+        it.close();
+        assertEquals(2000, seen.size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
@@ -1,6 +1,9 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -29,6 +32,48 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for RowTuple: typed accessors and Fields read the same
+     * values, set through setField or copied from page bytes, and
+     * Predicate.filter() compares them.
+     */
+    @Test public void rowTuple() {
+        TupleDesc td = new TupleDesc(new Type[] {
+                Type.INT_TYPE, Type.STRING_TYPE, Type.VARCHAR_TYPE, Type.INT_TYPE });
+        RowTuple tup = new RowTuple(td);
+        tup.setField(0, new IntField(-7));
+        tup.setField(1, new StringField("fixed", Type.STRING_LEN));
+        tup.setField(2, new VarcharField("long enough", Type.STRING_LEN));
+        tup.setField(2, new VarcharField("short", Type.STRING_LEN));
+        tup.setField(3, new IntField(Integer.MAX_VALUE));
+
+        assertEquals(-7, tup.getInt(0));
+        assertEquals("fixed", tup.getString(1));
+        assertEquals("short", tup.getString(2));
+        assertEquals(new IntField(Integer.MAX_VALUE), tup.getField(3));
+        assertEquals("-7\tfixed\tshort\t" + Integer.MAX_VALUE, tup.toString());
+        try {
+            tup.getInt(1);
+            fail("expected exception");
+        } catch (ClassCastException e) {
+        }
+
+        java.nio.ByteBuffer buf = java.nio.ByteBuffer.allocate(td.getSize() + 10);
+        buf.position(10);
+        tup.serialize(buf);
+        RowTuple copy = new RowTuple(td, buf, 10);
+        assertEquals(tup.toString(), copy.toString());
+
+        assertTrue(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)).filter(copy));
+        assertFalse(new Predicate(3, Predicate.Op.NOT_EQUALS,
+                new IntField(Integer.MAX_VALUE)).filter(copy));
+        assertTrue(new Predicate(2, Predicate.Op.LIKE,
+                new StringField("hor", Type.STRING_LEN)).filter(copy));
+
+        copy.resetTupleDesc(new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE }));
+        assertEquals("-7\tfixed", copy.toString());
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
@@ -3,6 +3,7 @@ package simpledb.systemtest;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -81,6 +82,7 @@ public class SystemTestUtil {
         // Convert the tuples list to a heap file and open it
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        HeapFile.freeSpaceMapFile(temp).deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return temp;
     }
@@ -94,6 +96,23 @@ public class SystemTestUtil {
         return list;
     }
 
+    /** @return the tuples left in the open iterator it, as lists */
+    public static List<ArrayList<Integer>> readTuples(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        List<ArrayList<Integer>> read = new ArrayList<ArrayList<Integer>>();
+        while (it.hasNext())
+            read.add(tupleToList(it.next()));
+        return read;
+    }
+
+    /** @return the number of tables in the Catalog, spill files included */
+    public static int numTables() {
+        int n = 0;
+        for (Iterator<Integer> it = Database.getCatalog().tableIdIterator(); it.hasNext(); it.next())
+            n++;
+        return n;
+    }
+
     public static void matchTuples(DbFile f, List<ArrayList<Integer>> tuples)
             throws DbException, TransactionAbortedException, IOException {
         TransactionId tid = new TransactionId();